@@ -21,7 +21,15 @@ LOCAL_MODULE_TAGS := optional
 
 LOCAL_STATIC_JAVA_LIBRARIES := libarity android-support-v4 guava
 
-LOCAL_SRC_FILES := $(call all-java-files-under, src)
+# Core classes that no screen of the app uses yet; the core build still compiles them.
+calculator_unused_core_files := \
+    core/src/com/android/calculator2/FunctionSampler.java \
+    core/src/com/android/calculator2/SampleBuffer.java \
+    core/src/com/android/calculator2/ValueTable.java \
+    core/src/com/android/calculator2/Worksheet.java
+
+LOCAL_SRC_FILES := $(call all-java-files-under, src) \
+    $(filter-out $(calculator_unused_core_files), $(call all-java-files-under, core/src))
 
 LOCAL_SDK_VERSION := current
 
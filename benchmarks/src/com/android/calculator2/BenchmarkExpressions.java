@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+/**
+ * The expression corpus shared by the benchmarks, in normalized form.
+ */
+public final class BenchmarkExpressions {
+
+    /**
+     * Expressions of the size typically typed on the keypad.
+     */
+    public static final String[] SHORT = {
+        "12+34",
+        "3*4-5",
+        "0.1+0.2",
+        "22/7",
+        "2^10",
+        "5!",
+        "sin(3.14159/4)",
+        "ln(2)*log(100)",
+    };
+
+    /**
+     * Long formulas, as pasted from elsewhere.
+     */
+    public static final String[] LONG = {
+        repeat("(1.5+2.25)*3/4-", 30) + "1",
+        repeat("123456789+", 50) + "0",
+        repeat("sin(0.5)*cos(0.25)+", 20) + "tan(1)",
+        repeat("0.125*8-", 40) + "0.5",
+    };
+
+    /**
+     * Inputs that stress specific code paths: deep nesting, long literals, operator runs and
+     * chained prefix/postfix operators.
+     */
+    public static final String[] PATHOLOGICAL = {
+        repeat("(", 200) + "1" + repeat(")", 200),
+        repeat("9", 400),
+        repeat("√", 100) + "2",
+        "3!!",
+        repeat("2^", 30) + "0.5",
+        repeat("1-", 300) + "1",
+    };
+
+    /**
+     * Returns the corpus with the given name, one of {@code short}, {@code long} or
+     * {@code pathological}.
+     */
+    public static String[] get(String name) {
+        switch (name) {
+            case "short":
+                return SHORT;
+            case "long":
+                return LONG;
+            case "pathological":
+                return PATHOLOGICAL;
+            default:
+                throw new IllegalArgumentException("unknown corpus: " + name);
+        }
+    }
+
+    /**
+     * Returns the symbols for the given digits, either {@code latn} (the default resources) or
+     * {@code arab} (the default resources with Arabic-Indic digits and decimal separator).
+     */
+    public static ExpressionSymbols symbols(String digits) {
+        switch (digits) {
+            case "latn":
+                return ExpressionSymbols.DEFAULT;
+            case "arab":
+                final ExpressionSymbols.Builder builder = new ExpressionSymbols.Builder()
+                        .setZeroDigit('\u0660')
+                        .setDecimalSeparator('\u066b');
+                final ExpressionSymbols latn = ExpressionSymbols.DEFAULT;
+                for (int i = 0; i < latn.getSymbolCount(); ++i) {
+                    builder.addSymbol(latn.getNormalizedSymbol(i), latn.getLocalizedSymbol(i));
+                }
+                return builder.build();
+            default:
+                throw new IllegalArgumentException("unknown digits: " + digits);
+        }
+    }
+
+    private static String repeat(String s, int count) {
+        final StringBuilder sb = new StringBuilder(s.length() * count);
+        for (int i = 0; i < count; ++i) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    private BenchmarkExpressions() {
+    }
+}
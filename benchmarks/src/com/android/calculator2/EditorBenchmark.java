@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the editing rules applied by {@link ExpressionEditor#replace} (and so by
+ * {@code CalculatorExpressionBuilder}) on every keystroke.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EditorBenchmark {
+
+    @Param({"short", "long", "pathological"})
+    public String corpus;
+
+    @Param({"latn", "arab"})
+    public String digits;
+
+    private ExpressionTokenizer mTokenizer;
+    private String[] mLocalized;
+
+    private final StringBuilder mText = new StringBuilder();
+
+    @Setup
+    public void setUp() {
+        mTokenizer = new ExpressionTokenizer(BenchmarkExpressions.symbols(digits));
+
+        final String[] normalized = BenchmarkExpressions.get(corpus);
+        mLocalized = new String[normalized.length];
+        for (int i = 0; i < normalized.length; ++i) {
+            mLocalized[i] = mTokenizer.getLocalizedExpression(normalized[i]);
+        }
+    }
+
+    /**
+     * Types each expression one character at a time, applying the resulting edits.
+     */
+    @Benchmark
+    public void typeExpressions(Blackhole blackhole) {
+        for (String expr : mLocalized) {
+            final ExpressionEditor editor = new ExpressionEditor(mTokenizer, false /* isEdited */);
+            mText.setLength(0);
+            for (int i = 0; i < expr.length(); ++i) {
+                final int length = mText.length();
+                final ExpressionEditor.Edit edit =
+                        editor.replace(mText, length, length, expr.subSequence(i, i + 1));
+                mText.replace(edit.start, edit.end, edit.text.toString());
+            }
+            blackhole.consume(mText.length());
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+import org.javia.arity.Symbols;
+import org.javia.arity.SyntaxException;
+import org.javia.arity.Util;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the evaluation engines behind {@link ExpressionEvaluator#evaluate}, including the
+ * final result formatting, and compares the latency of the double and precise engines.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EvaluatorBenchmark {
+
+    // Same as ExpressionEvaluator.
+    private static final int MAX_DIGITS = 12;
+    private static final int ROUNDING_DIGITS = Math.max(17 - MAX_DIGITS, 0);
+
+    @Param({"short", "long", "pathological"})
+    public String corpus;
+
+    private String[] mExpressions;
+
+    private final Symbols mSymbols = new Symbols();
+    private final ArityEvaluationEngine mArityEngine = new ArityEvaluationEngine();
+    private final PreciseEvaluationEngine mPreciseEngine = new PreciseEvaluationEngine();
+
+    @Setup
+    public void setUp() {
+        mExpressions = BenchmarkExpressions.get(corpus);
+    }
+
+    /**
+     * arity compiling every expression from scratch, as before the compiled-expression cache.
+     */
+    @Benchmark
+    public void arityUncached(Blackhole blackhole) {
+        for (String expr : mExpressions) {
+            try {
+                blackhole.consume(format(mSymbols.eval(expr)));
+            } catch (SyntaxException e) {
+                blackhole.consume(e);
+            }
+        }
+    }
+
+    /**
+     * arity reusing compiled functions from the engine's cache.
+     */
+    @Benchmark
+    public void arityCached(Blackhole blackhole) {
+        for (String expr : mExpressions) {
+            try {
+                blackhole.consume(format(mArityEngine.evaluate(expr)));
+            } catch (SyntaxException e) {
+                blackhole.consume(e);
+            }
+        }
+    }
+
+    /**
+     * The precise engine, for the expressions it supports.
+     */
+    @Benchmark
+    public void precise(Blackhole blackhole) {
+        for (String expr : mExpressions) {
+            if (PreciseEvaluationEngine.isSupported(expr)) {
+                try {
+                    blackhole.consume(format(mPreciseEngine.evaluate(expr)));
+                } catch (UnsupportedOperationException e) {
+                    blackhole.consume(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * The precise engine evaluating every prefix of each expression in turn, so that the values
+     * of its closed groups, powers, roots and factorials are reused from the previous prefixes.
+     */
+    @Benchmark
+    public void preciseKeystrokes(Blackhole blackhole) {
+        final PreciseEvaluationEngine engine = new PreciseEvaluationEngine();
+        for (String expr : mExpressions) {
+            if (PreciseEvaluationEngine.isSupported(expr)) {
+                for (int end = 1; end <= expr.length(); ++end) {
+                    try {
+                        blackhole.consume(engine.evaluate(expr.substring(0, end)));
+                    } catch (UnsupportedOperationException e) {
+                        blackhole.consume(e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The complete evaluation of every prefix of each expression in turn, as while an expression
+     * is typed one character at a time.
+     */
+    @Benchmark
+    public void evaluateKeystrokes(final Blackhole blackhole) {
+        final ExpressionEvaluator evaluator =
+                new ExpressionEvaluator(new ExpressionTokenizer(ExpressionSymbols.DEFAULT));
+        final ExpressionEvaluator.Callback callback = new ExpressionEvaluator.Callback() {
+            @Override
+            public void onEvaluate(String expr, String result, EvaluationError error) {
+                blackhole.consume(result);
+            }
+        };
+        for (String expr : mExpressions) {
+            for (int end = 1; end <= expr.length(); ++end) {
+                evaluator.evaluate(expr.substring(0, end), callback);
+            }
+        }
+    }
+
+    private static String format(double result) {
+        return Util.doubleToString(result, MAX_DIGITS, ROUNDING_DIGITS);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+import org.javia.arity.Util;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link ResultFormatter} with the arity formatting and tokenizer localization it
+ * replaces, over results spanning positional and scientific notation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FormatterBenchmark {
+
+    // Same as ExpressionEvaluator.
+    private static final int MAX_DIGITS = 12;
+    private static final int ROUNDING_DIGITS = Math.max(17 - MAX_DIGITS, 0);
+
+    @Param({"latn", "arab"})
+    public String digits;
+
+    private final double[] mValues = new double[256];
+
+    private ExpressionTokenizer mTokenizer;
+    private ResultFormatter mFormatter;
+
+    @Setup
+    public void setUp() {
+        final ExpressionSymbols symbols = BenchmarkExpressions.symbols(digits);
+        mTokenizer = new ExpressionTokenizer(symbols);
+        mFormatter = new ResultFormatter(symbols, MAX_DIGITS, ROUNDING_DIGITS);
+
+        final Random random = new Random(0);
+        for (int i = 0; i < mValues.length; ++i) {
+            final double value = random.nextDouble() * Math.pow(10, random.nextInt(40) - 20);
+            mValues[i] = random.nextBoolean() ? value : -value;
+        }
+    }
+
+    @Benchmark
+    public void arity(Blackhole blackhole) {
+        for (double value : mValues) {
+            blackhole.consume(mTokenizer.getLocalizedExpression(
+                    Util.doubleToString(value, MAX_DIGITS, ROUNDING_DIGITS)));
+        }
+    }
+
+    @Benchmark
+    public void formatter(Blackhole blackhole) {
+        for (double value : mValues) {
+            blackhole.consume(mFormatter.format(value));
+        }
+    }
+}
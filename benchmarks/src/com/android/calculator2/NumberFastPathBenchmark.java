@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.calculator2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the check {@link ExpressionEvaluator#evaluate} makes before evaluating whether the
+ * expression is just a number, for every prefix of each expression as while it is typed. Compare
+ * gc.alloc.rate.norm of {@link #isNumber} with the {@link Double#valueOf(String)} check it
+ * replaced, which allocates a {@link NumberFormatException} for every non-number. The check is
+ * now made during normalization, so {@link #isNumber} is compared with {@link #normalize}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class NumberFastPathBenchmark {
+
+    @Param({"short", "long", "pathological"})
+    public String corpus;
+
+    private String[] mPrefixes;
+
+    /**
+     * The offset from which each prefix differs from the previous one.
+     */
+    private int[] mEditStarts;
+
+    private final ExpressionTokenizer mTokenizer =
+            new ExpressionTokenizer(ExpressionSymbols.DEFAULT);
+
+    @Setup
+    public void setUp() {
+        final List<String> prefixes = new ArrayList<String>();
+        for (String expr : BenchmarkExpressions.get(corpus)) {
+            for (int end = 1; end <= expr.length(); ++end) {
+                prefixes.add(expr.substring(0, end));
+            }
+        }
+        mPrefixes = prefixes.toArray(new String[prefixes.size()]);
+        mEditStarts = new int[mPrefixes.length];
+        for (int i = 1; i < mPrefixes.length; ++i) {
+            // Each prefix appends a character to the previous one, unless it starts a new
+            // expression.
+            mEditStarts[i] = mPrefixes[i].length() > mPrefixes[i - 1].length()
+                    ? mPrefixes[i - 1].length() : 0;
+        }
+    }
+
+    @Benchmark
+    public void valueOf(Blackhole blackhole) {
+        for (String expr : mPrefixes) {
+            boolean isNumber;
+            try {
+                isNumber = Double.valueOf(expr) != null;
+            } catch (NumberFormatException e) {
+                isNumber = false;
+            }
+            blackhole.consume(isNumber);
+        }
+    }
+
+    /**
+     * Normalizes each prefix in turn, as the evaluator does.
+     */
+    @Benchmark
+    public void normalize(Blackhole blackhole) {
+        final SymbolTrie.IncrementalTranslator normalizer = mTokenizer.newIncrementalNormalizer();
+        for (int i = 0; i < mPrefixes.length; ++i) {
+            blackhole.consume(normalizer.translate(mPrefixes[i], mEditStarts[i]));
+        }
+    }
+
+    /**
+     * Normalizes each prefix in turn and checks whether it is a number.
+     */
+    @Benchmark
+    public void isNumber(Blackhole blackhole) {
+        final SymbolTrie.IncrementalTranslator normalizer = mTokenizer.newIncrementalNormalizer();
+        for (int i = 0; i < mPrefixes.length; ++i) {
+            blackhole.consume(normalizer.translate(mPrefixes[i], mEditStarts[i]));
+            blackhole.consume(normalizer.isNumber(mPrefixes[i].length()));
+        }
+    }
+}
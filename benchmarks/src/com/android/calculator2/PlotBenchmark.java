@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.calculator2;
+
+import org.javia.arity.Symbols;
+import org.javia.arity.SyntaxException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the frame time of {@link FunctionSampler} for a 1080x1920 view, which must stay well
+ * below 16 ms for 60 fps: sampling the whole view, as after a large zoom, and panning by 3 pixels
+ * per frame, which only samples the newly exposed range.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PlotBenchmark {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final double X_RANGE = 20;
+
+    @Param({"sin(x)", "tan(x)", "sqrt(x)", "x^3-2x", "sin(1/x)"})
+    public String function;
+
+    private FunctionSampler mSampler;
+    private double mXMin;
+    private boolean mZoomedIn;
+
+    @Setup
+    public void setUp() throws SyntaxException {
+        mSampler = FunctionSampler.compile(new Symbols(), function);
+        mXMin = -X_RANGE / 2;
+    }
+
+    @Benchmark
+    public SampleBuffer sampleView() {
+        // Alternate between scales more than MAX_SCALE_RATIO apart, so that every call samples
+        // the whole view.
+        mZoomedIn = !mZoomedIn;
+        final double xRange = mZoomedIn ? X_RANGE / 4 : X_RANGE;
+        return mSampler.sample(-xRange / 2, xRange / 2, -5, 5, WIDTH, HEIGHT);
+    }
+
+    @Benchmark
+    public SampleBuffer pan() {
+        mXMin += 3 * X_RANGE / WIDTH;
+        if (mXMin > 1000) {
+            mXMin = -1000;
+        }
+        return mSampler.sample(mXMin, mXMin + X_RANGE, -5, 5, WIDTH, HEIGHT);
+    }
+}
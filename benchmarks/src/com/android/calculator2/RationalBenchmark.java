@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.calculator2;
+
+import org.javia.arity.Symbols;
+import org.javia.arity.SyntaxException;
+import org.javia.arity.Util;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the rational engine with the double and precise engines on the expressions of each
+ * corpus it supports, including the final result formatting.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RationalBenchmark {
+
+    // Same as ExpressionEvaluator.
+    private static final int MAX_DIGITS = 12;
+    private static final int ROUNDING_DIGITS = Math.max(17 - MAX_DIGITS, 0);
+
+    @Param({"short", "long", "pathological"})
+    public String corpus;
+
+    private String[] mExpressions;
+
+    private final Symbols mSymbols = new Symbols();
+    private final ArityEvaluationEngine mArityEngine = new ArityEvaluationEngine();
+    private final PreciseEvaluationEngine mPreciseEngine = new PreciseEvaluationEngine();
+    private final RationalEvaluationEngine mRationalEngine = new RationalEvaluationEngine();
+
+    @Setup
+    public void setUp() {
+        final List<String> expressions = new ArrayList<>();
+        for (String expr : BenchmarkExpressions.get(corpus)) {
+            if (RationalEvaluationEngine.isSupported(expr)) {
+                expressions.add(expr);
+            }
+        }
+        mExpressions = expressions.toArray(new String[expressions.size()]);
+    }
+
+    /**
+     * arity compiling every expression from scratch.
+     */
+    @Benchmark
+    public void arityUncached(Blackhole blackhole) throws SyntaxException {
+        for (String expr : mExpressions) {
+            blackhole.consume(format(mSymbols.eval(expr)));
+        }
+    }
+
+    /**
+     * arity reusing compiled functions from the engine's cache.
+     */
+    @Benchmark
+    public void arityCached(Blackhole blackhole) throws SyntaxException {
+        for (String expr : mExpressions) {
+            blackhole.consume(format(mArityEngine.evaluate(expr)));
+        }
+    }
+
+    @Benchmark
+    public void precise(Blackhole blackhole) {
+        for (String expr : mExpressions) {
+            blackhole.consume(format(mPreciseEngine.evaluate(expr)));
+        }
+    }
+
+    @Benchmark
+    public void rational(Blackhole blackhole) {
+        for (String expr : mExpressions) {
+            blackhole.consume(format(mRationalEngine.evaluate(expr)));
+        }
+    }
+
+    private static String format(double result) {
+        return Util.doubleToString(result, MAX_DIGITS, ROUNDING_DIGITS);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.calculator2;
+
+import org.javia.arity.Symbols;
+import org.javia.arity.SyntaxException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks redefining a register in a worksheet of chained definitions, {@code r0=0},
+ * {@code d0=r0}, {@code r1=1}, {@code d1=d0+r1} and so on. {@link SymbolTable} recompiles only
+ * the dependents of the redefined register: all of the chain for {@code r0}, a single definition
+ * for the last register. Compare with recompiling every definition on each edit.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SymbolTableBenchmark {
+
+    @Param({"10", "50"})
+    public int size;
+
+    private String[] mSources;
+    private SymbolTable mSymbolTable;
+    private int mValue;
+
+    @Setup
+    public void setUp() throws SyntaxException {
+        mSources = new String[2 * size];
+        for (int i = 0; i < size; ++i) {
+            mSources[2 * i] = "r" + i + "=" + i;
+            mSources[2 * i + 1] = "d" + i + "=" + (i == 0 ? "" : "d" + (i - 1) + "+") + "r" + i;
+        }
+        mSymbolTable = new SymbolTable();
+        for (String source : mSources) {
+            mSymbolTable.define(source);
+        }
+    }
+
+    @Benchmark
+    public void redefineFirst(Blackhole blackhole) throws SyntaxException {
+        blackhole.consume(mSymbolTable.define("r0=" + (++mValue & 0xff)));
+    }
+
+    @Benchmark
+    public void redefineLast(Blackhole blackhole) throws SyntaxException {
+        blackhole.consume(mSymbolTable.define("r" + (size - 1) + "=" + (++mValue & 0xff)));
+    }
+
+    /**
+     * Recompiles every definition in order, as needed without dependency tracking.
+     */
+    @Benchmark
+    public void recompileAll(Blackhole blackhole) throws SyntaxException {
+        final Symbols symbols = mSymbolTable.getSymbols();
+        mSources[2 * (size - 1)] = "r" + (size - 1) + "=" + (++mValue & 0xff);
+        for (String source : mSources) {
+            symbols.define(symbols.compileWithName(source));
+        }
+        blackhole.consume(symbols);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link ExpressionTokenizer#getNormalizedExpression} and
+ * {@link ExpressionTokenizer#getLocalizedExpression} for a latin digit locale and for an Arabic
+ * digit locale.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TokenizerBenchmark {
+
+    @Param({"short", "long", "pathological"})
+    public String corpus;
+
+    @Param({"latn", "arab"})
+    public String digits;
+
+    private ExpressionTokenizer mTokenizer;
+
+    private String[] mNormalized;
+    private String[] mLocalized;
+
+    @Setup
+    public void setUp() {
+        mTokenizer = new ExpressionTokenizer(BenchmarkExpressions.symbols(digits));
+
+        mNormalized = BenchmarkExpressions.get(corpus);
+        mLocalized = new String[mNormalized.length];
+        for (int i = 0; i < mNormalized.length; ++i) {
+            mLocalized[i] = mTokenizer.getLocalizedExpression(mNormalized[i]);
+        }
+    }
+
+    @Benchmark
+    public void normalize(Blackhole blackhole) {
+        for (String expr : mLocalized) {
+            blackhole.consume(mTokenizer.getNormalizedExpression(expr));
+        }
+    }
+
+    @Benchmark
+    public void localize(Blackhole blackhole) {
+        for (String expr : mNormalized) {
+            blackhole.consume(mTokenizer.getLocalizedExpression(expr));
+        }
+    }
+
+    /**
+     * Normalizes every prefix of each expression in turn, as the evaluator does while an
+     * expression is typed one character at a time.
+     */
+    @Benchmark
+    public void normalizeKeystrokes(Blackhole blackhole) {
+        final SymbolTrie.IncrementalTranslator translator = mTokenizer.newIncrementalNormalizer();
+        for (String expr : mLocalized) {
+            for (int end = 1; end <= expr.length(); ++end) {
+                // Each keystroke appends the last character.
+                blackhole.consume(translator.translate(expr.substring(0, end), end - 1));
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+import org.javia.arity.Complex;
+import org.javia.arity.ContextFunction;
+import org.javia.arity.EvalContext;
+import org.javia.arity.Function;
+import org.javia.arity.SyntaxException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An {@link EvaluationEngine} backed by the arity library's double precision arithmetic. Supports
+ * every expression the calculator can produce, as well as the registers and functions of its
+ * {@link SymbolTable}. Not thread-safe.
+ * <p>
+ * Arity folds a constant expression into its value when compiling it, on an {@link EvalContext}
+ * shared by the whole process, so engines on different threads would take turns. Instead each
+ * expression is compiled as a function of an unused argument and evaluated on the engine's own
+ * context, so that engines on different threads evaluate in parallel.
+ */
+public class ArityEvaluationEngine implements EvaluationEngine {
+
+    /**
+     * The maximum number of expression values to keep in {@link #mValueCache}.
+     */
+    private static final int MAX_CACHED_VALUES = 32;
+
+    /**
+     * Prepended to expressions to compile them as a function of x, which cannot be redefined.
+     */
+    private static final String DECLARATION = "f(x)=";
+
+    /**
+     * Arity's implicit arguments, which make an expression a function rather than a constant.
+     */
+    private static final Set<String> IMPLICIT_ARGUMENTS =
+            new HashSet<>(Arrays.asList("x", "y", "z"));
+
+    private final SymbolTable mSymbolTable;
+    private final EvalContext mContext = new EvalContext();
+    private final Complex mArgument = new Complex();
+
+    /**
+     * Expression values keyed by normalized expression, in least recently used order.
+     */
+    private final Map<String, CachedValue> mValueCache =
+            new LinkedHashMap<String, CachedValue>(16, 0.75f, true /* accessOrder */) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedValue> eldest) {
+                    return size() > MAX_CACHED_VALUES;
+                }
+            };
+
+    private int mCacheHitCount;
+    private int mCacheMissCount;
+
+    public ArityEvaluationEngine() {
+        this(new SymbolTable());
+    }
+
+    public ArityEvaluationEngine(SymbolTable symbolTable) {
+        mSymbolTable = symbolTable;
+    }
+
+    @Override
+    public double evaluate(String expr) throws SyntaxException {
+        final CachedValue cached = mValueCache.get(expr);
+        if (cached != null && !mSymbolTable.hasChangedSince(expr, cached.mGeneration)) {
+            ++mCacheHitCount;
+            return cached.mValue;
+        }
+
+        ++mCacheMissCount;
+        // Read before compiling, so that a concurrent definition causes a recompile next time.
+        final long generation = mSymbolTable.getGeneration();
+        final double value = compileAndEvaluate(expr);
+        mValueCache.put(expr, new CachedValue(value, generation));
+        return value;
+    }
+
+    /**
+     * Returns the number of evaluations that did not need to compile their expression.
+     */
+    public int getCacheHitCount() {
+        return mCacheHitCount;
+    }
+
+    /**
+     * Returns the number of evaluations that had to compile their expression.
+     */
+    public int getCacheMissCount() {
+        return mCacheMissCount;
+    }
+
+    private double compileAndEvaluate(String expr) throws SyntaxException {
+        if (!Collections.disjoint(SymbolTable.getNames(expr), IMPLICIT_ARGUMENTS)) {
+            // Only constant expressions can be evaluated, match Symbols#eval(String).
+            throw new SyntaxException();
+        }
+        final Function function = mSymbolTable.compile(DECLARATION + expr);
+        try {
+            // Evaluated in the complex domain and then made real, as arity folds constants.
+            mArgument.set(0, 0);
+            final Complex value = function instanceof ContextFunction
+                    ? ((ContextFunction) function).eval(mArgument, mContext)
+                    : function.eval(mArgument);
+            return value.asReal();
+        } catch (Error e) {
+            // Arity's code for functions with arguments unbalances its stack for a few inputs,
+            // e.g. lg(0/0)^0. Fold the constant on the shared context instead.
+            return mSymbolTable.compile(expr).eval();
+        }
+    }
+
+    /**
+     * The value of an expression and the {@link SymbolTable} generation it was compiled at, since
+     * arity binds the definitions it uses at compile time.
+     */
+    private static class CachedValue {
+
+        final double mValue;
+        final long mGeneration;
+
+        CachedValue(double value, long generation) {
+            mValue = value;
+            mGeneration = generation;
+        }
+    }
+}
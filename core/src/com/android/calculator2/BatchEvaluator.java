@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Evaluates a stream of localized expressions in parallel, with the same parsing and rounding
+ * rules as the calculator display, delivering the results in input order.
+ *
+ * <p>Expressions are evaluated in chunks by a fixed pool of workers. Each worker has its own
+ * {@link ExpressionEvaluator}, and so its own arity {@code Symbols}, which is not thread-safe,
+ * and its own arity {@code EvalContext}, so that workers do not take turns on arity's shared one.
+ * At most a few chunks per worker are in flight at any time, so arbitrarily long streams are
+ * processed with bounded memory.
+ */
+public class BatchEvaluator {
+
+    /**
+     * The number of expressions evaluated by a single task.
+     */
+    private static final int CHUNK_SIZE = 1024;
+
+    /**
+     * The number of chunks per worker that may be in flight before the oldest one is delivered.
+     */
+    private static final int CHUNKS_PER_THREAD = 2;
+
+    private final ExpressionSymbols mSymbols;
+    private final int mThreadCount;
+
+    private final ThreadLocal<ExpressionEvaluator> mEvaluator =
+            new ThreadLocal<ExpressionEvaluator>() {
+                @Override
+                protected ExpressionEvaluator initialValue() {
+                    return new ExpressionEvaluator(new ExpressionTokenizer(mSymbols));
+                }
+            };
+
+    public BatchEvaluator(ExpressionSymbols symbols) {
+        this(symbols, Runtime.getRuntime().availableProcessors());
+    }
+
+    public BatchEvaluator(ExpressionSymbols symbols, int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount must be positive: " + threadCount);
+        }
+        mSymbols = symbols;
+        mThreadCount = threadCount;
+    }
+
+    /**
+     * Evaluates every expression from {@code expressions}, calling {@code listener} once per
+     * expression, in input order, on the calling thread. Returns the number of expressions
+     * evaluated.
+     */
+    public long evaluate(Iterator<String> expressions, ResultListener listener)
+            throws InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(mThreadCount,
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        final Thread thread = new Thread(runnable,
+                                "BatchEvaluator-" + mCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+        final Queue<Future<Chunk>> pending = new ArrayDeque<>();
+        final int maxPending = mThreadCount * CHUNKS_PER_THREAD;
+        long index = 0;
+        try {
+            while (expressions.hasNext()) {
+                final String[] chunk = new String[CHUNK_SIZE];
+                int size = 0;
+                while (size < CHUNK_SIZE && expressions.hasNext()) {
+                    chunk[size++] = expressions.next();
+                }
+                pending.add(executor.submit(new Chunk(chunk, size)));
+
+                if (pending.size() >= maxPending) {
+                    index = deliver(pending.remove(), index, listener);
+                }
+            }
+            while (!pending.isEmpty()) {
+                index = deliver(pending.remove(), index, listener);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return index;
+    }
+
+    private static long deliver(Future<Chunk> future, long index, ResultListener listener)
+            throws InterruptedException {
+        final Chunk chunk;
+        try {
+            chunk = future.get();
+        } catch (ExecutionException e) {
+            // Evaluation reports failures as errors, anything else is a bug.
+            throw new RuntimeException(e.getCause());
+        }
+
+        for (int i = 0; i < chunk.mSize; ++i) {
+            listener.onResult(index++, chunk.mExpressions[i], chunk.mResults[i],
+                    chunk.mErrors[i]);
+        }
+        return index;
+    }
+
+    /**
+     * A slice of the input along with its results once evaluated.
+     */
+    private final class Chunk implements Callable<Chunk>, ExpressionEvaluator.Callback {
+
+        private final String[] mExpressions;
+        private final int mSize;
+        private final String[] mResults;
+        private final EvaluationError[] mErrors;
+
+        private int mPosition;
+
+        Chunk(String[] expressions, int size) {
+            mExpressions = expressions;
+            mSize = size;
+            mResults = new String[size];
+            mErrors = new EvaluationError[size];
+        }
+
+        @Override
+        public Chunk call() {
+            final ExpressionEvaluator evaluator = mEvaluator.get();
+            for (mPosition = 0; mPosition < mSize; ++mPosition) {
+                evaluator.evaluate(mExpressions[mPosition], this);
+            }
+            return this;
+        }
+
+        @Override
+        public void onEvaluate(String expr, String result, EvaluationError error) {
+            mResults[mPosition] = result;
+            mErrors[mPosition] = error;
+        }
+    }
+
+    public interface ResultListener {
+        /**
+         * @param index the zero-based position of {@code expr} in the input
+         * @param expr the expression as given
+         * @param result the localized result, or {@code null} if the calculator would not show one
+         *         (e.g. {@code expr} is empty or a plain number)
+         * @param error the reason evaluation failed, or {@code null} if it did not
+         */
+        public void onResult(long index, String expr, String result, EvaluationError error);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+/**
+ * Limits the work a single evaluation may do: the number of arithmetic operations, the number of
+ * digits of the exact values operated on, and the wall time. An exact evaluation that would
+ * exceed its budget is abandoned, and {@link ExpressionEvaluator} falls back to double precision
+ * instead. Only expressions longer than the maximum number of operations are rejected outright
+ * with {@link EvaluationError#TOO_COMPLEX}. Immutable.
+ */
+public final class EvaluationBudget {
+
+    /**
+     * For live previews, small enough to keep up with typing.
+     */
+    public static final EvaluationBudget PREVIEW = new EvaluationBudget(2000, 1000, 50);
+
+    /**
+     * For an explicitly requested result.
+     */
+    public static final EvaluationBudget RESULT = new EvaluationBudget(1000000, 10000, 2000);
+
+    public static final EvaluationBudget UNLIMITED =
+            new EvaluationBudget(Integer.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE);
+
+    private final int mMaxOperations;
+    private final int mMaxDigits;
+    private final long mMaxTimeMillis;
+
+    /**
+     * @param maxOperations the maximum number of arithmetic operations, expressions longer than
+     *         this are not evaluated at all
+     * @param maxDigits the maximum number of digits of any exact value operated on
+     * @param maxTimeMillis the maximum wall time in milliseconds
+     */
+    public EvaluationBudget(int maxOperations, int maxDigits, long maxTimeMillis) {
+        if (maxOperations <= 0 || maxDigits <= 0 || maxTimeMillis <= 0) {
+            throw new IllegalArgumentException("budget must be positive");
+        }
+        mMaxOperations = maxOperations;
+        mMaxDigits = maxDigits;
+        mMaxTimeMillis = maxTimeMillis;
+    }
+
+    public int getMaxOperations() {
+        return mMaxOperations;
+    }
+
+    public int getMaxDigits() {
+        return mMaxDigits;
+    }
+
+    public long getMaxTimeMillis() {
+        return mMaxTimeMillis;
+    }
+
+    /**
+     * Returns the maximum wall time in nanoseconds, saturated for unlimited budgets.
+     */
+    long getMaxTimeNanos() {
+        return mMaxTimeMillis > Long.MAX_VALUE / 1000000L
+                ? Long.MAX_VALUE : mMaxTimeMillis * 1000000L;
+    }
+
+    /**
+     * Thrown by an engine when an evaluation exceeds its budget.
+     */
+    public static class ExceededException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            // Thrown routinely for adversarial input, skip the stack trace.
+            return this;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+import org.javia.arity.SyntaxException;
+
+/**
+ * Evaluates normalized expressions for {@link ExpressionEvaluator}.
+ */
+public interface EvaluationEngine {
+
+    /**
+     * Evaluates a normalized expression.
+     *
+     * @throws SyntaxException if the expression is not valid.
+     * @throws UnsupportedExpressionException if the expression is valid but cannot be evaluated
+     *         by this engine, the caller should fall back to another engine.
+     */
+    public double evaluate(String expr) throws SyntaxException;
+
+    /**
+     * Thrown by an engine for an expression it cannot evaluate.
+     */
+    public static class UnsupportedExpressionException extends UnsupportedOperationException {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            // Thrown routinely for partially typed input, skip the stack trace.
+            return this;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+/**
+ * Applies the calculator's editing rules to changes of a localized expression, e.g. preventing
+ * two decimal points in the same number or multiple successive operators.
+ */
+public class ExpressionEditor {
+
+    private static final String OPERATORS = "+-*/";
+
+    private final ExpressionTokenizer mTokenizer;
+    private boolean mIsEdited;
+
+    /**
+     * The localized length of each of {@link #OPERATORS}.
+     */
+    private final int[] mOperatorLengths = new int[OPERATORS.length()];
+
+    // Lexer state describing the end of the text, updated as edits are made so that the rules
+    // for each appended character do not need to normalize and scan the whole text.
+
+    /**
+     * The length of the text described by the lexer state, or -1 if it must be rebuilt.
+     */
+    private int mLength = -1;
+    /**
+     * Whether the text ends with a decimal point followed by zero or more digits.
+     */
+    private boolean mNumberHasPoint;
+    /**
+     * The last character if it is one of {@link #OPERATORS}, otherwise 0.
+     */
+    private char mLastOperator;
+    /**
+     * The localized length of the run of operators at the end of the text.
+     */
+    private int mOperatorRunLength;
+
+    /**
+     * @param isEdited {@code false} if the current expression is a result that should be replaced
+     *         by the first edit, instead of being edited.
+     */
+    public ExpressionEditor(ExpressionTokenizer tokenizer, boolean isEdited) {
+        mTokenizer = tokenizer;
+        mIsEdited = isEdited;
+
+        for (int i = 0; i < OPERATORS.length(); ++i) {
+            mOperatorLengths[i] = tokenizer.getLocalizedExpression(
+                    String.valueOf(OPERATORS.charAt(i))).length();
+        }
+    }
+
+    public boolean isEdited() {
+        return mIsEdited;
+    }
+
+    /**
+     * Returns the edit to perform in place of replacing the range [{@code start}, {@code end})
+     * of {@code text} with {@code replacement}. The returned edit is expected to be applied.
+     */
+    public Edit replace(CharSequence text, int start, int end, CharSequence replacement) {
+        final int length = text.length();
+        if (start != length || end != length) {
+            mIsEdited = true;
+            mLength = -1;
+            return new Edit(start, end, replacement);
+        }
+
+        if (mLength != length) {
+            // The text was not built by appending through this editor, rescan it.
+            resetState();
+            advanceState(mTokenizer.getNormalizedExpression(text.toString()));
+        }
+
+        String appendExpr = mTokenizer.getNormalizedExpression(replacement.toString());
+        if (appendExpr.length() == 1) {
+            switch (appendExpr.charAt(0)) {
+                case '.':
+                    // don't allow two decimals in the same number
+                    if (mNumberHasPoint) {
+                        appendExpr = "";
+                    }
+                    break;
+                case '+':
+                case '*':
+                case '/':
+                    // don't allow leading operator
+                    if (start == 0) {
+                        appendExpr = "";
+                        break;
+                    }
+
+                    // don't allow multiple successive operators
+                    start -= mOperatorRunLength;
+                    mOperatorRunLength = 0;
+                    mLastOperator = 0;
+                    // fall through
+                case '-':
+                    // don't allow -- or +-
+                    if (mLastOperator == '+' || mLastOperator == '-') {
+                        final int lastLength = getOperatorLength(mLastOperator);
+                        start -= lastLength;
+                        mOperatorRunLength -= lastLength;
+                    }
+
+                    // mark as edited since operators can always be appended
+                    mIsEdited = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        // since this is the first edit replace the entire string
+        if (!mIsEdited && appendExpr.length() > 0) {
+            start = 0;
+            mIsEdited = true;
+            resetState();
+        }
+
+        final String localizedExpr = mTokenizer.getLocalizedExpression(appendExpr);
+        advanceState(appendExpr);
+        mLength = start + localizedExpr.length();
+        return new Edit(start, end, localizedExpr);
+    }
+
+    private void resetState() {
+        mNumberHasPoint = false;
+        mLastOperator = 0;
+        mOperatorRunLength = 0;
+    }
+
+    /**
+     * Updates the lexer state for {@code expr} (normalized) being appended to the text.
+     */
+    private void advanceState(String expr) {
+        for (int i = 0; i < expr.length(); ++i) {
+            final char c = expr.charAt(i);
+            if (OPERATORS.indexOf(c) != -1) {
+                if (mLastOperator == 0) {
+                    mOperatorRunLength = 0;
+                }
+                mLastOperator = c;
+                mOperatorRunLength += getOperatorLength(c);
+            } else {
+                mLastOperator = 0;
+                mOperatorRunLength = 0;
+            }
+
+            if (c == '.') {
+                mNumberHasPoint = true;
+            } else if (!Character.isDigit(c)) {
+                mNumberHasPoint = false;
+            }
+        }
+    }
+
+    private int getOperatorLength(char operator) {
+        return mOperatorLengths[OPERATORS.indexOf(operator)];
+    }
+
+    /**
+     * Replace the range [{@link #start}, {@link #end}) with {@link #text}.
+     */
+    public static final class Edit {
+        public final int start;
+        public final int end;
+        public final CharSequence text;
+
+        public Edit(int start, int end, CharSequence text) {
+            this.start = start;
+            this.end = end;
+            this.text = text;
+        }
+    }
+}
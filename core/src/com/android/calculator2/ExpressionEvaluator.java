@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+import org.javia.arity.SyntaxException;
+
+import java.util.Set;
+
+/**
+ * Evaluates localized expressions, producing a localized result rounded for display.
+ */
+public class ExpressionEvaluator {
+
+    /**
+     * The maximum number of significant digits to display.
+     */
+    static final int MAX_DIGITS = 12;
+
+    /**
+     * A {@link Double} has at least 17 significant digits, we show the first {@link #MAX_DIGITS}
+     * and use the remaining digits as guard digits to hide floating point precision errors.
+     */
+    static final int ROUNDING_DIGITS = Math.max(17 - MAX_DIGITS, 0);
+
+    /**
+     * Integers with at most this many digits in total are combined exactly by + - *, since
+     * neither they nor any intermediate result can exceed 2^53.
+     */
+    private static final int MAX_EXACT_DOUBLE_DIGITS = 15;
+
+    private final SymbolTable mSymbolTable;
+    private final ArityEvaluationEngine mDoubleEngine;
+    private final RationalEvaluationEngine mRationalEngine = new RationalEvaluationEngine();
+    private final PreciseEvaluationEngine mPreciseEngine = new PreciseEvaluationEngine();
+    private final ExpressionTokenizer mTokenizer;
+    private final SymbolTrie.IncrementalTranslator mNormalizer;
+    private final ResultFormatter mFormatter;
+
+    private int mLastResultHitCount;
+
+    // The last evaluated expression and its outcome, replayed if it is evaluated again.
+    private String mLastExpr;
+    private String mLastResult;
+    private EvaluationError mLastError;
+    private long mLastGeneration;
+
+    /**
+     * Set if the last evaluation fell back to the double engine for lack of budget, a larger
+     * budget may give a more precise result.
+     */
+    private boolean mBudgetExceeded;
+
+    public ExpressionEvaluator(ExpressionTokenizer tokenizer) {
+        this(tokenizer, new SymbolTable());
+    }
+
+    /**
+     * Creates an evaluator whose expressions may use the registers and functions of
+     * {@code symbolTable}, which may be shared with other evaluators.
+     */
+    public ExpressionEvaluator(ExpressionTokenizer tokenizer, SymbolTable symbolTable) {
+        mSymbolTable = symbolTable;
+        mDoubleEngine = new ArityEvaluationEngine(symbolTable);
+        mTokenizer = tokenizer;
+        mNormalizer = tokenizer.newIncrementalNormalizer();
+        mFormatter = new ResultFormatter(tokenizer.getSymbols(), MAX_DIGITS, ROUNDING_DIGITS);
+    }
+
+    public SymbolTable getSymbolTable() {
+        return mSymbolTable;
+    }
+
+    /**
+     * Defines a register or function from a localized definition such as {@code f(x)=2×x+1}, see
+     * {@link SymbolTable#define(String)}.
+     */
+    public Set<String> define(String definition) throws SyntaxException {
+        return mSymbolTable.define(mTokenizer.getNormalizedExpression(definition));
+    }
+
+    /**
+     * Returns the number of evaluations that did not need to compile their expression.
+     */
+    public synchronized int getCacheHitCount() {
+        return mLastResultHitCount + mDoubleEngine.getCacheHitCount();
+    }
+
+    /**
+     * Returns the number of evaluations that had to compile their expression.
+     */
+    public synchronized int getCacheMissCount() {
+        return mDoubleEngine.getCacheMissCount();
+    }
+
+    /**
+     * Evaluates {@code expr} without an {@link EvaluationBudget}.
+     */
+    public void evaluate(String expr, Callback callback) {
+        evaluate(expr, EvaluationBudget.UNLIMITED, callback);
+    }
+
+    /**
+     * Evaluates {@code expr}, reporting {@link EvaluationError#TOO_COMPLEX} if that would exceed
+     * {@code budget}.
+     */
+    public synchronized void evaluate(String expr, EvaluationBudget budget, Callback callback) {
+        final long start = Metrics.start();
+        // Most edits append to or delete from the end of the previous expression, only the
+        // changed suffix needs to be normalized again.
+        evaluateNormalized(mNormalizer.translate(expr), start, budget, callback);
+    }
+
+    /**
+     * Evaluates {@code expr} like {@link #evaluate(String, EvaluationBudget, Callback)}, where
+     * {@code expr} is the same as the expression previously evaluated up to {@code editStart}, so
+     * that only the text after the edit needs to be normalized again.
+     */
+    public synchronized void evaluate(CharSequence expr, int editStart, EvaluationBudget budget,
+            Callback callback) {
+        final long start = Metrics.start();
+        evaluateNormalized(mNormalizer.translate(expr, editStart), start, budget, callback);
+    }
+
+    private void evaluateNormalized(CharSequence normalized, long start, EvaluationBudget budget,
+            Callback callback) {
+        // remove any trailing operators
+        int length = normalized.length();
+        while (length > 0 && "+-/*".indexOf(normalized.charAt(length - 1)) != -1) {
+            --length;
+        }
+        String expr = normalized.subSequence(0, length).toString();
+        Metrics.stop(Metrics.Stage.NORMALIZE, start);
+
+        start = Metrics.start();
+        // Known from normalization, without scanning the expression again.
+        final boolean isNumber = length == 0 || mNormalizer.isNumber(length);
+        Metrics.stop(Metrics.Stage.NUMBER_FAST_PATH, start);
+        if (isNumber) {
+            // Nothing to evaluate, the expression is already its own result.
+            callback.onEvaluate(expr, null, null);
+            return;
+        }
+
+        if (expr.equals(mLastExpr) && !mSymbolTable.hasChangedSince(expr, mLastGeneration)) {
+            ++mLastResultHitCount;
+            callback.onEvaluate(expr, mLastResult, mLastError);
+            return;
+        }
+
+        // The cost of the double engine is proportional to the length of the expression.
+        if (expr.length() > budget.getMaxOperations()) {
+            callback.onEvaluate(expr, null, EvaluationError.TOO_COMPLEX);
+            return;
+        }
+
+        String resultString = null;
+        EvaluationError error = null;
+        mBudgetExceeded = false;
+        final long generation = mSymbolTable.getGeneration();
+        try {
+            final double result;
+            start = Metrics.start();
+            try {
+                result = evaluateWithEngine(expr, budget);
+            } finally {
+                // Also timed if the expression is invalid, as it usually is while typing.
+                Metrics.stop(Metrics.Stage.EVALUATE, start);
+            }
+            if (Double.isNaN(result)) {
+                error = EvaluationError.NAN;
+            } else {
+                // The arity library uses floating point arithmetic when evaluating the expression
+                // leading to precision errors in the result. The formatter hides these errors;
+                // rounding the result by dropping N digits of precision.
+                resultString = mFormatter.format(result);
+            }
+        } catch (SyntaxException e) {
+            error = EvaluationError.SYNTAX;
+        }
+
+        mLastExpr = mBudgetExceeded ? null : expr;
+        mLastResult = resultString;
+        mLastError = error;
+        mLastGeneration = generation;
+        callback.onEvaluate(expr, resultString, error);
+    }
+
+    /**
+     * Evaluates {@code expr} with the double engine if its result is known to be exact, otherwise
+     * with the precise engine if it supports the expression and can evaluate it within
+     * {@code budget}.
+     */
+    private double evaluateWithEngine(String expr, EvaluationBudget budget)
+            throws SyntaxException {
+        if (isExactInDouble(expr)) {
+            return mDoubleEngine.evaluate(expr);
+        }
+        if (RationalEvaluationEngine.isSupported(expr)) {
+            mRationalEngine.setBudget(budget);
+            try {
+                return mRationalEngine.evaluate(expr);
+            } catch (UnsupportedOperationException e) {
+                // e.g. division by zero, fall back to the other engines.
+            } catch (EvaluationBudget.ExceededException e) {
+                // Numerators or denominators grew too large, the precise engine rounds instead.
+            }
+        }
+        if (PreciseEvaluationEngine.isSupported(expr)) {
+            mPreciseEngine.setBudget(budget);
+            try {
+                return mPreciseEngine.evaluate(expr);
+            } catch (UnsupportedOperationException e) {
+                // e.g. non-integer powers, fall back to the double engine.
+            } catch (EvaluationBudget.ExceededException e) {
+                // Too costly to evaluate exactly, the double engine is still bounded by the
+                // length of the expression.
+                mBudgetExceeded = true;
+            }
+        }
+        return mDoubleEngine.evaluate(expr);
+    }
+
+    /**
+     * Returns {@code true} if {@code expr} only combines integers using + - * and has few enough
+     * digits that double arithmetic is guaranteed to be exact.
+     */
+    private static boolean isExactInDouble(String expr) {
+        int digitCount = 0;
+        for (int i = 0; i < expr.length(); ++i) {
+            final char c = expr.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++digitCount > MAX_EXACT_DOUBLE_DIGITS) {
+                    return false;
+                }
+            } else if ("+-*()".indexOf(c) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public interface Callback {
+        /**
+         * @param expr the normalized expression that was evaluated
+         * @param result the localized result, or {@code null} if there is nothing to show
+         * @param error the reason evaluation failed, or {@code null} if it did not
+         */
+        public void onEvaluate(String expr, String result, EvaluationError error);
+    }
+}
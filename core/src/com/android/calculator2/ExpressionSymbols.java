@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The localized glyphs used to display an expression: digits, the decimal separator and the
+ * operator and function symbols. Immutable.
+ */
+public final class ExpressionSymbols {
+
+    /**
+     * The symbols of the default (untranslated) resources with latin digits.
+     */
+    public static final ExpressionSymbols DEFAULT = new Builder()
+            .setZeroDigit('0')
+            .setDecimalSeparator('.')
+            .addSymbol("/", "\u00f7")
+            .addSymbol("*", "\u00d7")
+            .addSymbol("-", "\u2212")
+            .addSymbol("cos", "cos")
+            .addSymbol("ln", "ln")
+            .addSymbol("log", "log")
+            .addSymbol("sin", "sin")
+            .addSymbol("tan", "tan")
+            .addSymbol("Infinity", "\u221e")
+            .build();
+
+    private final char mZeroDigit;
+    private final char mDecimalSeparator;
+    private final String[] mNormalizedSymbols;
+    private final String[] mLocalizedSymbols;
+
+    // Precomputed glyph strings, so that readers never allocate them per use.
+    private final String[] mDigitStrings = new String[10];
+    private final String mDecimalSeparatorString;
+
+    private ExpressionSymbols(Builder builder) {
+        mZeroDigit = builder.mZeroDigit;
+        mDecimalSeparator = builder.mDecimalSeparator;
+        mNormalizedSymbols = builder.mNormalizedSymbols.toArray(new String[0]);
+        mLocalizedSymbols = builder.mLocalizedSymbols.toArray(new String[0]);
+
+        for (int i = 0; i < mDigitStrings.length; ++i) {
+            mDigitStrings[i] = String.valueOf(getDigit(i));
+        }
+        mDecimalSeparatorString = String.valueOf(mDecimalSeparator);
+    }
+
+    /**
+     * Returns the localized glyph for the digit 0, the other digits follow it consecutively.
+     */
+    public char getZeroDigit() {
+        return mZeroDigit;
+    }
+
+    /**
+     * Returns the localized glyph for {@code digit}.
+     */
+    public char getDigit(int digit) {
+        return (char) (mZeroDigit + digit);
+    }
+
+    /**
+     * Returns the localized glyph for {@code digit} as a string.
+     */
+    public String getDigitString(int digit) {
+        return mDigitStrings[digit];
+    }
+
+    public char getDecimalSeparator() {
+        return mDecimalSeparator;
+    }
+
+    public String getDecimalSeparatorString() {
+        return mDecimalSeparatorString;
+    }
+
+    /**
+     * Returns the number of operator and function symbols.
+     */
+    public int getSymbolCount() {
+        return mNormalizedSymbols.length;
+    }
+
+    /**
+     * Returns the normalized (arity) form of the symbol at {@code index}.
+     */
+    public String getNormalizedSymbol(int index) {
+        return mNormalizedSymbols[index];
+    }
+
+    /**
+     * Returns the localized form of the symbol at {@code index}.
+     */
+    public String getLocalizedSymbol(int index) {
+        return mLocalizedSymbols[index];
+    }
+
+    /**
+     * Returns the localized form of the {@code normalized} symbol, or {@code normalized} itself
+     * if it has none.
+     */
+    public String getLocalizedSymbol(String normalized) {
+        for (int i = 0; i < mNormalizedSymbols.length; ++i) {
+            if (mNormalizedSymbols[i].equals(normalized)) {
+                return mLocalizedSymbols[i];
+            }
+        }
+        return normalized;
+    }
+
+    public static final class Builder {
+        private char mZeroDigit = '0';
+        private char mDecimalSeparator = '.';
+        private final List<String> mNormalizedSymbols = new ArrayList<>();
+        private final List<String> mLocalizedSymbols = new ArrayList<>();
+
+        public Builder setZeroDigit(char zeroDigit) {
+            mZeroDigit = zeroDigit;
+            return this;
+        }
+
+        public Builder setDecimalSeparator(char decimalSeparator) {
+            mDecimalSeparator = decimalSeparator;
+            return this;
+        }
+
+        /**
+         * Adds an operator or function symbol, e.g. {@code addSymbol("/", "\u00f7")}.
+         */
+        public Builder addSymbol(String normalized, String localized) {
+            mNormalizedSymbols.add(normalized);
+            mLocalizedSymbols.add(localized);
+            return this;
+        }
+
+        public ExpressionSymbols build() {
+            return new ExpressionSymbols(this);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+/**
+ * Converts expressions between their localized (displayed) form and their normalized form as
+ * understood by the evaluation engines.
+ */
+public class ExpressionTokenizer {
+
+    private final ExpressionSymbols mSymbols;
+
+    /**
+     * Maps localized symbols to their normalized (arity) form.
+     */
+    private final SymbolTrie mNormalizer = new SymbolTrie();
+
+    /**
+     * Maps normalized (arity) symbols to their localized form.
+     */
+    private final SymbolTrie mLocalizer = new SymbolTrie();
+
+    /**
+     * Reusable output buffer, only used once a replacement is actually required. Guarded by this
+     * since expressions may be translated from the evaluation thread.
+     */
+    private final StringBuilder mBuffer = new StringBuilder();
+
+    public ExpressionTokenizer(ExpressionSymbols symbols) {
+        mSymbols = symbols;
+
+        // Digits and the decimal separator are added first so that they take precedence if a
+        // localized glyph collides with one of the operators or functions below.
+        addReplacement(".", symbols.getDecimalSeparatorString());
+
+        for (int i = 0; i <= 9; ++i) {
+            addReplacement(Integer.toString(i), symbols.getDigitString(i));
+        }
+
+        for (int i = 0; i < symbols.getSymbolCount(); ++i) {
+            addReplacement(symbols.getNormalizedSymbol(i), symbols.getLocalizedSymbol(i));
+        }
+    }
+
+    private void addReplacement(String normalized, String localized) {
+        // Identity replacements never change the output, skip them to keep the common
+        // (e.g. latin digits) case allocation free.
+        if (!normalized.equals(localized)) {
+            mNormalizer.put(localized, normalized);
+            mLocalizer.put(normalized, localized);
+        }
+    }
+
+    public ExpressionSymbols getSymbols() {
+        return mSymbols;
+    }
+
+    public synchronized String getNormalizedExpression(String expr) {
+        return mNormalizer.translate(expr, mBuffer);
+    }
+
+    public synchronized String getLocalizedExpression(String expr) {
+        return mLocalizer.translate(expr, mBuffer);
+    }
+
+    /**
+     * Returns a new {@link SymbolTrie.IncrementalTranslator} that normalizes successive versions
+     * of the same expression.
+     */
+    public SymbolTrie.IncrementalTranslator newIncrementalNormalizer() {
+        return mNormalizer.newIncrementalTranslator();
+    }
+}
@@ -0,0 +1,453 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.calculator2;
+
+import org.javia.arity.Complex;
+import org.javia.arity.ContextFunction;
+import org.javia.arity.Derivative;
+import org.javia.arity.EvalContext;
+import org.javia.arity.Function;
+import org.javia.arity.Symbols;
+import org.javia.arity.SyntaxException;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Samples a function of x for plotting, adaptively: more densely where the curve turns sharply on
+ * screen, as measured by its derivative, and around the edges of its domain.
+ *
+ * <p>Samples are kept in a {@link SampleBuffer} that is reused across frames. While the scale of
+ * the view stays within a factor of {@link #MAX_SCALE_RATIO} and it moves vertically by less than
+ * its height, panning and zooming only samples the newly exposed range and drops the samples that
+ * left the view. Ranges are split into segments sampled in parallel on a fork/join pool.
+ *
+ * <p>Arity evaluates through a single shared context and its {@link Derivative} is not
+ * thread-safe, so each segment evaluates with its own {@link EvalContext} and takes the same
+ * complex step derivative itself. Not thread-safe, {@link #sample} is meant to be called from a
+ * single background thread.
+ *
+ * <p>There is no plot view to draw the samples yet; until there is, the app does not build this
+ * class or {@link SampleBuffer}.
+ */
+public class FunctionSampler {
+
+    /**
+     * The distance, in pixels, between the samples every range starts with.
+     */
+    private static final double BASE_STEP_PIXELS = 8;
+
+    /**
+     * Intervals are not subdivided below this width, in pixels.
+     */
+    private static final double MIN_STEP_PIXELS = 0.25;
+
+    /**
+     * The maximum difference in direction on screen, in radians, between the chord of an interval
+     * and the tangent at either end, before the interval is subdivided.
+     */
+    private static final double MAX_TURN = 0.1;
+
+    /**
+     * The fraction of a base step within which a grid point is considered to be at the end of a
+     * range.
+     */
+    private static final double GRID_TOLERANCE = 1E-6;
+
+    /**
+     * The distance, in pixels, within which a midpoint is considered to be on the chord of its
+     * interval.
+     */
+    private static final double MAX_CHORD_ERROR_PIXELS = 0.5;
+
+    /**
+     * The step of the complex step derivative, as used by {@link Derivative}.
+     */
+    private static final double COMPLEX_STEP = 1E-12;
+
+    /**
+     * Existing samples are kept while the scale of the view changes by no more than this factor.
+     */
+    private static final double MAX_SCALE_RATIO = 2;
+
+    /**
+     * The number of segments per core a range is split into, to balance uneven refinement.
+     */
+    private static final int SEGMENTS_PER_THREAD = 4;
+
+    private static final double[] NO_ARGUMENTS = new double[0];
+
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+
+    private final Function mFunction;
+    private final SampleBuffer mSamples = new SampleBuffer();
+    private Segment[] mSegments = new Segment[0];
+
+    /**
+     * The scales, in pixels per unit, the current samples were taken at.
+     */
+    private double mXScale;
+    private double mYScale;
+
+    /**
+     * The band within which samples are refined, the view extended by its height above and
+     * below so that panning vertically by less than that keeps the samples.
+     */
+    private double mYLow;
+    private double mYHigh;
+
+    /**
+     * @param function a function of at most one argument
+     */
+    public FunctionSampler(Function function) {
+        if (function.arity() > 1) {
+            throw new IllegalArgumentException("function must have at most one argument: "
+                    + function.arity());
+        }
+        mFunction = function;
+    }
+
+    /**
+     * Compiles the normalized {@code expr}, a function of x, once for all subsequent sampling.
+     *
+     * @throws SyntaxException if {@code expr} is invalid or uses more than one argument
+     */
+    public static FunctionSampler compile(Symbols symbols, String expr) throws SyntaxException {
+        final Function function = SymbolTable.compile(symbols, expr);
+        if (function.arity() > 1) {
+            throw new SyntaxException();
+        }
+        return new FunctionSampler(function);
+    }
+
+    /**
+     * Updates and returns the samples covering {@code xMin} to {@code xMax}, for a view of
+     * {@code width} by {@code height} pixels showing {@code yMin} to {@code yMax}. The buffer is
+     * only valid until the next call.
+     */
+    public SampleBuffer sample(double xMin, double xMax, double yMin, double yMax, int width,
+            int height) {
+        if (!(xMin < xMax) || !(yMin < yMax) || width < 1 || height < 1) {
+            throw new IllegalArgumentException("empty view");
+        }
+        final double xScale = width / (xMax - xMin);
+        final double yScale = height / (yMax - yMin);
+        final int size = mSamples.size();
+        if (size < 2 || !isSimilar(xScale, mXScale) || !isSimilar(yScale, mYScale)
+                || yMin < mYLow || yMax > mYHigh
+                || mSamples.getX(0) >= xMax || mSamples.getX(size - 1) <= xMin) {
+            mSamples.clear();
+            mXScale = xScale;
+            mYScale = yScale;
+            mYLow = yMin - (yMax - yMin);
+            mYHigh = yMax + (yMax - yMin);
+            sampleRange(alignDown(xMin), alignUp(xMax), Mode.REPLACE);
+            return mSamples;
+        }
+
+        // Drop the samples that left the view by more than a base step, except the closest one on
+        // either side, which the curve enters from. Sampling at least a base step beyond the view
+        // means that panning by a few pixels neither samples every frame nor adds samples more
+        // densely than a full sampling would.
+        final double overscan = BASE_STEP_PIXELS / mXScale;
+        while (mSamples.size() > 2 && mSamples.getX(1) <= xMin - overscan) {
+            mSamples.removeFirst();
+        }
+        while (mSamples.size() > 2 && mSamples.getX(mSamples.size() - 2) >= xMax + overscan) {
+            mSamples.removeLast();
+        }
+        final double first = mSamples.getX(0);
+        if (xMin < first) {
+            sampleRange(alignDown(Math.min(xMin, first - overscan)), first, Mode.PREPEND);
+        }
+        final double last = mSamples.getX(mSamples.size() - 1);
+        if (xMax > last) {
+            sampleRange(last, alignUp(Math.max(xMax, last + overscan)), Mode.APPEND);
+        }
+        return mSamples;
+    }
+
+    /**
+     * Returns the largest multiple of the base step not above {@code x}, give or take rounding.
+     */
+    private double alignDown(double x) {
+        final double step = BASE_STEP_PIXELS / mXScale;
+        return Math.floor(x / step + GRID_TOLERANCE) * step;
+    }
+
+    /**
+     * Returns the smallest multiple of the base step not below {@code x}, give or take rounding.
+     */
+    private double alignUp(double x) {
+        final double step = BASE_STEP_PIXELS / mXScale;
+        return Math.ceil(x / step - GRID_TOLERANCE) * step;
+    }
+
+    private static boolean isSimilar(double scale, double previousScale) {
+        return scale <= previousScale * MAX_SCALE_RATIO && previousScale <= scale * MAX_SCALE_RATIO;
+    }
+
+    /**
+     * Samples {@code start} to {@code end} in parallel and adds the samples to
+     * {@link #mSamples}, leaving out those already there.
+     */
+    private void sampleRange(double start, double end, Mode mode) {
+        // Intervals end at multiples of the base step, so that samples line up across frames and
+        // zero, where functions often have a kink or the edge of their domain, is always sampled.
+        // Ranges are aligned to the grid already, grid points within rounding of either end are
+        // skipped.
+        final double step = BASE_STEP_PIXELS / mXScale;
+        final double firstGridPoint = Math.floor(start / step + GRID_TOLERANCE) + 1;
+        final double lastGridPoint = Math.ceil(end / step - GRID_TOLERANCE) - 1;
+        final int intervalCount = (int) Math.max(lastGridPoint - firstGridPoint + 2, 1);
+        final int segmentCount = Math.min(intervalCount,
+                POOL.getParallelism() * SEGMENTS_PER_THREAD);
+        if (mSegments.length < segmentCount) {
+            final Segment[] segments = new Segment[segmentCount];
+            System.arraycopy(mSegments, 0, segments, 0, mSegments.length);
+            for (int i = mSegments.length; i < segmentCount; ++i) {
+                segments[i] = new Segment();
+            }
+            mSegments = segments;
+        }
+        for (int i = 0; i < segmentCount; ++i) {
+            mSegments[i].set(start, end, step, firstGridPoint, intervalCount,
+                    (int) ((long) intervalCount * i / segmentCount),
+                    (int) ((long) intervalCount * (i + 1) / segmentCount));
+        }
+        if (segmentCount == 1) {
+            mSegments[0].sample();
+        } else {
+            POOL.invoke(new SampleTask(0, segmentCount));
+        }
+
+        if (mode == Mode.PREPEND) {
+            // The end is the first existing sample.
+            for (int i = segmentCount - 1; i >= 0; --i) {
+                final Segment segment = mSegments[i];
+                for (int j = segment.mSize - 1; j >= 0; --j) {
+                    mSamples.addFirst(segment.mXs[j], segment.mYs[j]);
+                }
+            }
+            return;
+        }
+        for (int i = 0; i < segmentCount; ++i) {
+            final Segment segment = mSegments[i];
+            // The start of an appended range is the last existing sample.
+            for (int j = mode == Mode.APPEND && i == 0 ? 1 : 0; j < segment.mSize; ++j) {
+                mSamples.addLast(segment.mXs[j], segment.mYs[j]);
+            }
+        }
+        mSamples.addLast(end, mSegments[0].value(end));
+    }
+
+    private enum Mode {
+        REPLACE, PREPEND, APPEND
+    }
+
+    /**
+     * Samples segments {@code mStart} (inclusive) to {@code mEnd} (exclusive) of
+     * {@link #mSegments}, splitting them between workers.
+     */
+    private final class SampleTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int mStart;
+        private final int mEnd;
+
+        SampleTask(int start, int end) {
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (mEnd - mStart == 1) {
+                mSegments[mStart].sample();
+                return;
+            }
+            final int middle = (mStart + mEnd) >>> 1;
+            invokeAll(new SampleTask(mStart, middle), new SampleTask(middle, mEnd));
+        }
+    }
+
+    /**
+     * A run of consecutive intervals of a range, with the evaluation state and sample arrays of
+     * the worker sampling it, reused across frames.
+     */
+    private final class Segment {
+
+        private final EvalContext mContext = new EvalContext();
+        private final Complex mComplex = new Complex();
+        private Derivative mDerivative;
+
+        double[] mXs = new double[256];
+        double[] mYs = new double[256];
+        int mSize;
+
+        private double mRangeStart;
+        private double mRangeEnd;
+        private double mStep;
+        private double mFirstGridPoint;
+        private int mIntervalCount;
+        private int mFirstInterval;
+        private int mEndInterval;
+
+        void set(double rangeStart, double rangeEnd, double step, double firstGridPoint,
+                int intervalCount, int firstInterval, int endInterval) {
+            mRangeStart = rangeStart;
+            mRangeEnd = rangeEnd;
+            mStep = step;
+            mFirstGridPoint = firstGridPoint;
+            mIntervalCount = intervalCount;
+            mFirstInterval = firstInterval;
+            mEndInterval = endInterval;
+        }
+
+        /**
+         * Samples the intervals of this segment, from the start of the first included to the end
+         * of the last excluded.
+         */
+        void sample() {
+            mSize = 0;
+            double x0 = getIntervalStart(mFirstInterval);
+            double y0 = value(x0);
+            double d0 = derivative(x0);
+            for (int i = mFirstInterval + 1; i <= mEndInterval; ++i) {
+                final double x1 = getIntervalStart(i);
+                final double y1 = value(x1);
+                final double d1 = derivative(x1);
+                add(x0, y0);
+                refine(x0, y0, d0, x1, y1, d1);
+                x0 = x1;
+                y0 = y1;
+                d0 = d1;
+            }
+        }
+
+        private double getIntervalStart(int interval) {
+            if (interval == 0) {
+                return mRangeStart;
+            } else if (interval == mIntervalCount) {
+                return mRangeEnd;
+            }
+            return (mFirstGridPoint + interval - 1) * mStep;
+        }
+
+        /**
+         * Adds the samples needed strictly between {@code x0} and {@code x1}, given the values
+         * and derivatives at both ends.
+         */
+        private void refine(double x0, double y0, double d0, double x1, double y1, double d1) {
+            if ((x1 - x0) * mXScale < 2 * MIN_STEP_PIXELS
+                    || !needsRefinement(x0, y0, d0, x1, y1, d1)) {
+                return;
+            }
+            final double x = (x0 + x1) / 2;
+            final double y = value(x);
+            if (isFinite(y0) && isFinite(y) && isFinite(y1)
+                    && Math.abs(y - (y0 + y1) / 2) * mYScale < MAX_CHORD_ERROR_PIXELS) {
+                // Straight after all, e.g. for a non-analytic function such as abs whose complex
+                // step derivative is meaningless.
+                return;
+            }
+            final double d = derivative(x);
+            refine(x0, y0, d0, x, y, d);
+            add(x, y);
+            refine(x, y, d, x1, y1, d1);
+        }
+
+        private boolean needsRefinement(double x0, double y0, double d0, double x1, double y1,
+                double d1) {
+            final boolean isFinite0 = isFinite(y0);
+            if (isFinite0 != isFinite(y1)) {
+                // Locate the edge of the domain.
+                return true;
+            }
+            if (!isFinite0) {
+                return false;
+            }
+            if ((y0 > mYHigh && y1 > mYHigh || y0 < mYLow && y1 < mYLow) && !(d0 * d1 < 0)) {
+                // Out of sight, unless the curve turns back between the ends.
+                return false;
+            }
+            if (isFinite(d0) && isFinite(d1)
+                    && Math.abs((x1 - x0) * (d0 - d1) / 8) * mYScale > MAX_CHORD_ERROR_PIXELS) {
+                // The cubic through both ends with these derivatives is this far off the chord
+                // at the midpoint, i.e. the curve bends visibly.
+                return true;
+            }
+            // A chord much steeper or flatter than the tangents suggests a jump, or a derivative
+            // that does not describe the function.
+            final double chord = getDirection((y1 - y0) / (x1 - x0));
+            final double tangent0 = isFinite(d0) ? getDirection(d0) : chord;
+            final double tangent1 = isFinite(d1) ? getDirection(d1) : chord;
+            return Math.abs(chord - tangent0) > MAX_TURN || Math.abs(chord - tangent1) > MAX_TURN;
+        }
+
+        /**
+         * Returns the direction on screen, in radians, of a slope in units.
+         */
+        private double getDirection(double slope) {
+            return Math.atan(slope * mYScale / mXScale);
+        }
+
+        double value(double x) {
+            if (mFunction.arity() == 0) {
+                return mFunction instanceof ContextFunction
+                        ? ((ContextFunction) mFunction).eval(NO_ARGUMENTS, mContext)
+                        : mFunction.eval();
+            }
+            return mFunction instanceof ContextFunction
+                    ? ((ContextFunction) mFunction).eval(x, mContext) : mFunction.eval(x);
+        }
+
+        private double derivative(double x) {
+            if (mFunction.arity() == 0) {
+                return 0;
+            }
+            if (mFunction instanceof ContextFunction) {
+                return ((ContextFunction) mFunction).eval(mComplex.set(x, COMPLEX_STEP), mContext)
+                        .im / COMPLEX_STEP;
+            }
+            if (mDerivative == null) {
+                mDerivative = new Derivative(mFunction);
+            }
+            return mDerivative.eval(x);
+        }
+
+        private void add(double x, double y) {
+            if (mSize == mXs.length) {
+                final double[] xs = new double[mSize * 2];
+                final double[] ys = new double[mSize * 2];
+                System.arraycopy(mXs, 0, xs, 0, mSize);
+                System.arraycopy(mYs, 0, ys, 0, mSize);
+                mXs = xs;
+                mYs = ys;
+            }
+            mXs[mSize] = x;
+            mYs[mSize] = y;
+            ++mSize;
+        }
+    }
+
+    private static boolean isFinite(double value) {
+        return !Double.isNaN(value) && !Double.isInfinite(value);
+    }
+}
@@ -0,0 +1,661 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent, append-only log of calculations.
+ *
+ * <p>Entries are stored in segment files of at most {@link #MAX_SEGMENT_SIZE} bytes by default.
+ * Each segment ({@code NNNNNNNN.log}) is paired with an index of record offsets
+ * ({@code NNNNNNNN.idx}), so opening the log reads the directory listing, the segment headers and
+ * the index of the last segment only, however many entries it holds. Records are read through
+ * memory-mapped segments, mapped on first access and paged in by the OS as needed.
+ *
+ * <p>A record is {@code [int length][int crc32][long timestamp][int expressionLength]
+ * [expression][result]}, with strings in UTF-8. A record torn by a crash is dropped when the log is
+ * opened.
+ *
+ * <p>{@link #append} and {@link #compact} must be called from a single thread, {@link #size} and
+ * {@link #get} may be called from any thread.
+ */
+public class HistoryLog implements Closeable {
+
+    /**
+     * The default size after which the current segment is closed and a new one started.
+     */
+    private static final int MAX_SEGMENT_SIZE = 1024 * 1024;
+
+    private static final int MAGIC = 0x43484c31; // "CHL1"
+
+    /**
+     * The log header: the magic number, the number of the oldest segment whose entries the
+     * segment includes (see {@link #compact}) and the segment id.
+     */
+    private static final int LOG_HEADER_SIZE = 16;
+
+    /**
+     * The index header: the id of the segment the index belongs to.
+     */
+    private static final int INDEX_HEADER_SIZE = 8;
+
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int MIN_BODY_SIZE = 12;
+
+    private static final String LOG_SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File mDirectory;
+    private final int mMaxSegmentSize;
+    private final Random mRandom = new Random();
+
+    /**
+     * The segments from oldest to newest, the last one is open for appending. Guarded by this.
+     */
+    private Segment[] mSegments;
+
+    private RandomAccessFile mLogFile;
+    private RandomAccessFile mIndexFile;
+
+    private final CRC32 mCrc = new CRC32();
+    private ByteBuffer mWriteBuffer = ByteBuffer.allocate(256);
+
+    public HistoryLog(File directory) throws IOException {
+        this(directory, MAX_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens a log whose segments are closed once they reach {@code maxSegmentSize} bytes.
+     */
+    HistoryLog(File directory, int maxSegmentSize) throws IOException {
+        mDirectory = directory;
+        mMaxSegmentSize = maxSegmentSize;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create " + directory);
+        }
+
+        final List<Segment> segments = new ArrayList<>();
+        int supersededFrom = Integer.MAX_VALUE;
+        int supersededTo = Integer.MIN_VALUE;
+        for (int number : listSegmentNumbers()) {
+            final Segment segment = new Segment(number);
+            final int coveredFrom = segment.readHeader();
+            if (coveredFrom < 0) {
+                // Never completely created, or not a segment at all.
+                segment.delete();
+                continue;
+            }
+            segments.add(segment);
+            if (coveredFrom < number) {
+                supersededFrom = Math.min(supersededFrom, coveredFrom);
+                supersededTo = Math.max(supersededTo, number);
+            }
+        }
+
+        // Remove segments merged by a compaction that was interrupted before deleting them.
+        final List<Segment> live = new ArrayList<>();
+        for (Segment segment : segments) {
+            if (segment.mNumber >= supersededFrom && segment.mNumber < supersededTo) {
+                segment.delete();
+            } else {
+                live.add(segment);
+            }
+        }
+
+        if (live.isEmpty()) {
+            live.add(createSegment(0));
+        }
+        for (int i = 0; i < live.size() - 1; ++i) {
+            live.get(i).verifyIndex();
+        }
+        final Segment current = live.get(live.size() - 1);
+        openForAppend(current);
+
+        long startIndex = 0;
+        for (Segment segment : live) {
+            segment.mStartIndex = startIndex;
+            startIndex += segment.mCount;
+        }
+        mSegments = live.toArray(new Segment[live.size()]);
+    }
+
+    /**
+     * Returns the number of entries in the log.
+     */
+    public synchronized long size() {
+        final Segment last = mSegments[mSegments.length - 1];
+        return last.mStartIndex + last.mCount;
+    }
+
+    /**
+     * Returns the entry at {@code index}, 0 being the oldest.
+     */
+    public synchronized Entry get(long index) throws IOException {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size());
+        }
+
+        final Segment[] segments = mSegments;
+        int low = 0;
+        int high = segments.length - 1;
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if (segments[mid].mStartIndex <= index) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return segments[low].read((int) (index - segments[low].mStartIndex));
+    }
+
+    /**
+     * Appends an entry to the log. The entry is written to the file system, but not synced.
+     */
+    public void append(String expression, String result, long timestamp) throws IOException {
+        final byte[] expressionBytes = expression.getBytes(StandardCharsets.UTF_8);
+        final byte[] resultBytes = result.getBytes(StandardCharsets.UTF_8);
+        final int bodyLength = MIN_BODY_SIZE + expressionBytes.length + resultBytes.length;
+        final int recordLength = RECORD_HEADER_SIZE + bodyLength;
+        if (mWriteBuffer.capacity() < recordLength) {
+            mWriteBuffer = ByteBuffer.allocate(Math.max(recordLength, mWriteBuffer.capacity() * 2));
+        }
+
+        final ByteBuffer buffer = mWriteBuffer;
+        buffer.clear();
+        buffer.position(RECORD_HEADER_SIZE);
+        buffer.putLong(timestamp).putInt(expressionBytes.length).put(expressionBytes)
+                .put(resultBytes);
+        mCrc.reset();
+        mCrc.update(buffer.array(), RECORD_HEADER_SIZE, bodyLength);
+        buffer.putInt(0, bodyLength).putInt(4, (int) mCrc.getValue());
+        buffer.flip();
+
+        Segment segment = getCurrentSegment();
+        if (segment.mCount > 0 && segment.mLength + recordLength > mMaxSegmentSize) {
+            segment = startSegment();
+        }
+
+        final int offset = segment.mLength;
+        final FileChannel log = mLogFile.getChannel();
+        while (buffer.hasRemaining()) {
+            log.write(buffer, offset + buffer.position());
+        }
+        // A record written but not indexed before a crash is recovered on open.
+        mIndexFile.seek(INDEX_HEADER_SIZE + 4L * segment.mCount);
+        mIndexFile.writeInt(offset);
+
+        synchronized (this) {
+            segment.addRecord(offset, recordLength);
+        }
+    }
+
+    /**
+     * Merges all but the current segment into one, keeping at most the {@code maxEntries} most
+     * recent entries of the whole log. Indices of the remaining entries shift down by the number
+     * of entries dropped.
+     */
+    public void compact(long maxEntries) throws IOException {
+        final Segment[] segments;
+        synchronized (this) {
+            segments = mSegments;
+        }
+        if (segments.length < 2) {
+            return;
+        }
+
+        final Segment current = segments[segments.length - 1];
+        final Segment newestClosed = segments[segments.length - 2];
+        final long closedCount = current.mStartIndex;
+        final long keepCount = Math.max(0, Math.min(closedCount, maxEntries - current.mCount));
+        if (segments.length == 2 && keepCount == closedCount) {
+            // Already compact.
+            return;
+        }
+
+        // Closed segments are immutable, so they are copied while readers continue to use them.
+        // Readers keep using the newest closed segment until the compacted one replaces it in
+        // mSegments, so it is mapped before its files are renamed over.
+        newestClosed.map();
+        final Segment compacted = new Segment(newestClosed.mNumber);
+        final File tempLog = new File(mDirectory, compacted.mLog.getName() + TEMP_SUFFIX);
+        final File tempIndex = new File(mDirectory, compacted.mIndex.getName() + TEMP_SUFFIX);
+        final long id = mRandom.nextLong();
+        int count = 0;
+        int length = LOG_HEADER_SIZE;
+        try (DataOutputStream log = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(tempLog)));
+                DataOutputStream index = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(tempIndex)))) {
+            log.writeInt(MAGIC);
+            log.writeInt(segments[0].mNumber);
+            log.writeLong(id);
+            index.writeLong(id);
+
+            byte[] bytes = new byte[256];
+            for (long i = closedCount - keepCount; i < closedCount; ++i) {
+                final ByteBuffer record = getRecord(segments, i);
+                final int recordLength = record.remaining();
+                if (bytes.length < recordLength) {
+                    bytes = new byte[Math.max(recordLength, bytes.length * 2)];
+                }
+                record.get(bytes, 0, recordLength);
+                index.writeInt(length);
+                log.write(bytes, 0, recordLength);
+                length += recordLength;
+                ++count;
+            }
+        }
+        sync(tempLog);
+        sync(tempIndex);
+
+        // Replace the newest closed segment. Its header makes every older segment obsolete, even
+        // if deleting them is interrupted, and the ids detect a log and index from different
+        // generations if renaming is interrupted.
+        if (!tempIndex.renameTo(compacted.mIndex) || !tempLog.renameTo(compacted.mLog)) {
+            throw new IOException("cannot replace " + compacted.mLog);
+        }
+        compacted.mCount = count;
+        compacted.mLength = length;
+
+        synchronized (this) {
+            compacted.mStartIndex = 0;
+            current.mStartIndex = count;
+            mSegments = new Segment[] { compacted, current };
+        }
+
+        for (int i = 0; i < segments.length - 2; ++i) {
+            segments[i].delete();
+        }
+    }
+
+    /**
+     * Returns the number of closed segments, which {@link #compact} merges into one.
+     */
+    public synchronized int getClosedSegmentCount() {
+        return mSegments.length - 1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            mLogFile.close();
+        } finally {
+            mIndexFile.close();
+        }
+    }
+
+    private static void sync(File file) throws IOException {
+        try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+            f.getFD().sync();
+        }
+    }
+
+    private synchronized Segment getCurrentSegment() {
+        return mSegments[mSegments.length - 1];
+    }
+
+    private static ByteBuffer getRecord(Segment[] segments, long index) throws IOException {
+        for (Segment segment : segments) {
+            if (index < segment.mStartIndex + segment.mCount) {
+                return segment.getRecord((int) (index - segment.mStartIndex));
+            }
+        }
+        throw new IndexOutOfBoundsException("index " + index);
+    }
+
+    private int[] listSegmentNumbers() {
+        final String[] names = mDirectory.list();
+        if (names == null) {
+            return new int[0];
+        }
+
+        int[] numbers = new int[names.length];
+        int count = 0;
+        for (String name : names) {
+            if (name.endsWith(LOG_SUFFIX)) {
+                try {
+                    numbers[count] = Integer.parseInt(
+                            name.substring(0, name.length() - LOG_SUFFIX.length()));
+                    ++count;
+                } catch (NumberFormatException e) {
+                    // not a segment
+                }
+            } else if (name.endsWith(TEMP_SUFFIX)) {
+                // Left over from an interrupted compaction.
+                new File(mDirectory, name).delete();
+            }
+        }
+        numbers = Arrays.copyOf(numbers, count);
+        Arrays.sort(numbers);
+        return numbers;
+    }
+
+    private Segment createSegment(int number) throws IOException {
+        final Segment segment = new Segment(number);
+        final long id = mRandom.nextLong();
+        try (RandomAccessFile index = new RandomAccessFile(segment.mIndex, "rw")) {
+            index.setLength(0);
+            index.writeLong(id);
+        }
+        try (RandomAccessFile log = new RandomAccessFile(segment.mLog, "rw")) {
+            log.setLength(0);
+            log.writeInt(MAGIC);
+            log.writeInt(number);
+            log.writeLong(id);
+        }
+        segment.mLength = LOG_HEADER_SIZE;
+        return segment;
+    }
+
+    private Segment startSegment() throws IOException {
+        final Segment last = getCurrentSegment();
+        final Segment segment = createSegment(last.mNumber + 1);
+        segment.mStartIndex = last.mStartIndex + last.mCount;
+
+        close();
+        openForAppend(segment);
+
+        synchronized (this) {
+            last.close();
+            final Segment[] segments = Arrays.copyOf(mSegments, mSegments.length + 1);
+            segments[segments.length - 1] = segment;
+            mSegments = segments;
+        }
+        return segment;
+    }
+
+    private void openForAppend(Segment segment) throws IOException {
+        mLogFile = new RandomAccessFile(segment.mLog, "rw");
+        mIndexFile = new RandomAccessFile(segment.mIndex, "rw");
+        segment.recover(mLogFile, mIndexFile);
+    }
+
+    /**
+     * Returns the length of the valid record at {@code offset} of {@code log}, or -1.
+     */
+    private int readRecordLength(RandomAccessFile log, int offset) throws IOException {
+        final long logLength = log.length();
+        if (offset + RECORD_HEADER_SIZE > logLength) {
+            return -1;
+        }
+        log.seek(offset);
+        final int bodyLength = log.readInt();
+        final int crc = log.readInt();
+        if (bodyLength < MIN_BODY_SIZE
+                || offset + RECORD_HEADER_SIZE + (long) bodyLength > logLength) {
+            return -1;
+        }
+        final byte[] body = new byte[bodyLength];
+        log.readFully(body);
+        mCrc.reset();
+        mCrc.update(body, 0, bodyLength);
+        return (int) mCrc.getValue() == crc ? RECORD_HEADER_SIZE + bodyLength : -1;
+    }
+
+    /**
+     * A log file and its index.
+     */
+    private final class Segment {
+
+        final int mNumber;
+        final File mLog;
+        final File mIndex;
+
+        long mStartIndex;
+        int mCount;
+        /**
+         * The length of the valid part of the log, including the header.
+         */
+        int mLength;
+
+        /**
+         * The record offsets of the segment open for appending, {@code null} once closed.
+         */
+        private int[] mOffsets;
+
+        private long mId;
+        private MappedByteBuffer mLogMap;
+        private MappedByteBuffer mIndexMap;
+
+        Segment(int number) {
+            mNumber = number;
+            final String name = String.format(Locale.US, "%08d", number);
+            mLog = new File(mDirectory, name + LOG_SUFFIX);
+            mIndex = new File(mDirectory, name + INDEX_SUFFIX);
+        }
+
+        /**
+         * Reads the header and index size, returning the number of the oldest segment included
+         * or -1 if the segment is not valid.
+         */
+        int readHeader() throws IOException {
+            if (!mIndex.exists()) {
+                return -1;
+            }
+            try (RandomAccessFile log = new RandomAccessFile(mLog, "r")) {
+                if (log.length() < LOG_HEADER_SIZE || log.readInt() != MAGIC) {
+                    return -1;
+                }
+                final int coveredFrom = log.readInt();
+                mId = log.readLong();
+                mLength = (int) log.length();
+                mCount = (int) Math.max(0, (mIndex.length() - INDEX_HEADER_SIZE) / 4);
+                return coveredFrom;
+            }
+        }
+
+        /**
+         * Rebuilds the index of a closed segment if it belongs to a different log, which happens
+         * if a compaction is interrupted between replacing the index and the log.
+         */
+        void verifyIndex() throws IOException {
+            try (RandomAccessFile index = new RandomAccessFile(mIndex, "rw")) {
+                if (index.length() >= INDEX_HEADER_SIZE && index.readLong() == mId) {
+                    return;
+                }
+                try (RandomAccessFile log = new RandomAccessFile(mLog, "r")) {
+                    final ByteArrayOutputStream offsets = new ByteArrayOutputStream();
+                    final DataOutputStream out = new DataOutputStream(offsets);
+                    out.writeLong(mId);
+                    int count = 0;
+                    int offset = LOG_HEADER_SIZE;
+                    int length;
+                    while ((length = readRecordLength(log, offset)) > 0) {
+                        out.writeInt(offset);
+                        offset += length;
+                        ++count;
+                    }
+                    index.setLength(0);
+                    index.write(offsets.toByteArray());
+                    mCount = count;
+                    mLength = offset;
+                }
+            }
+        }
+
+        /**
+         * Loads the index of the segment being appended to, dropping any torn record at its end
+         * and indexing any record written but not indexed. Only the end of the log is validated,
+         * records are always written before being indexed.
+         */
+        void recover(RandomAccessFile log, RandomAccessFile index) throws IOException {
+            int indexedCount = 0;
+            if (index.length() >= INDEX_HEADER_SIZE && index.readLong() == mId) {
+                indexedCount = (int) ((index.length() - INDEX_HEADER_SIZE) / 4);
+            }
+            mOffsets = new int[Math.max(16, indexedCount * 2)];
+            final ByteBuffer offsets = index.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, INDEX_HEADER_SIZE, 4L * indexedCount);
+            offsets.asIntBuffer().get(mOffsets, 0, indexedCount);
+
+            int count = indexedCount;
+            int end = LOG_HEADER_SIZE;
+            while (count > 0) {
+                final int length = readRecordLength(log, mOffsets[count - 1]);
+                if (length > 0) {
+                    end = mOffsets[count - 1] + length;
+                    break;
+                }
+                --count;
+            }
+            final int validIndexedCount = count;
+
+            int length;
+            while ((length = readRecordLength(log, end)) > 0) {
+                if (count == mOffsets.length) {
+                    mOffsets = Arrays.copyOf(mOffsets, count * 2);
+                }
+                mOffsets[count++] = end;
+                end += length;
+            }
+
+            if (count != indexedCount || index.length() != INDEX_HEADER_SIZE + 4L * count) {
+                index.setLength(INDEX_HEADER_SIZE + 4L * validIndexedCount);
+                index.seek(0);
+                index.writeLong(mId);
+                final ByteBuffer added = ByteBuffer.allocate(4 * (count - validIndexedCount));
+                added.asIntBuffer().put(mOffsets, validIndexedCount, count - validIndexedCount);
+                index.seek(INDEX_HEADER_SIZE + 4L * validIndexedCount);
+                index.write(added.array());
+            }
+            log.setLength(end);
+            mCount = count;
+            mLength = end;
+        }
+
+        void addRecord(int offset, int length) {
+            if (mCount == mOffsets.length) {
+                mOffsets = Arrays.copyOf(mOffsets, mCount * 2);
+            }
+            mOffsets[mCount] = offset;
+            mLength = offset + length;
+            ++mCount;
+        }
+
+        synchronized Entry read(int position) throws IOException {
+            final ByteBuffer record = getRecord(position);
+            final int bodyLength = record.getInt();
+            record.getInt(); // crc
+            final long timestamp = record.getLong();
+            final int expressionLength = record.getInt();
+            final String expression = decode(record, expressionLength);
+            final String result = decode(record, bodyLength - MIN_BODY_SIZE - expressionLength);
+            return new Entry(expression, result, timestamp);
+        }
+
+        /**
+         * Returns a buffer holding exactly the record at {@code position}.
+         */
+        synchronized ByteBuffer getRecord(int position) throws IOException {
+            final int offset = getOffset(position);
+            final int end = position + 1 < mCount ? getOffset(position + 1) : mLength;
+            if (mLogMap == null || mLogMap.capacity() < end) {
+                // The current segment grows, it is mapped again once reads pass the mapped end.
+                mapLog();
+            }
+            final ByteBuffer record = mLogMap.duplicate();
+            record.limit(end).position(offset);
+            return record.slice();
+        }
+
+        private int getOffset(int position) throws IOException {
+            if (mOffsets != null) {
+                return mOffsets[position];
+            }
+            if (mIndexMap == null) {
+                mapIndex();
+            }
+            return mIndexMap.getInt(INDEX_HEADER_SIZE + 4 * position);
+        }
+
+        /**
+         * Maps the whole of a closed segment, after which it no longer reads its files by name.
+         */
+        synchronized void map() throws IOException {
+            if (mLogMap == null || mLogMap.capacity() < mLength) {
+                mapLog();
+            }
+            if (mIndexMap == null) {
+                mapIndex();
+            }
+        }
+
+        private void mapLog() throws IOException {
+            try (RandomAccessFile log = new RandomAccessFile(mLog, "r")) {
+                mLogMap = log.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, mLength);
+            }
+        }
+
+        private void mapIndex() throws IOException {
+            try (RandomAccessFile index = new RandomAccessFile(mIndex, "r")) {
+                mIndexMap = index.getChannel()
+                        .map(FileChannel.MapMode.READ_ONLY, 0, index.length());
+            }
+        }
+
+        /**
+         * Marks the segment as no longer appended to, its records are now located through its
+         * index file.
+         */
+        synchronized void close() {
+            mOffsets = null;
+        }
+
+        void delete() {
+            mLog.delete();
+            mIndex.delete();
+        }
+    }
+
+    private static String decode(ByteBuffer buffer, int length) {
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static final class Entry {
+        public final String expression;
+        public final String result;
+        public final long timestamp;
+
+        public Entry(String expression, String result, long timestamp) {
+            this.expression = expression;
+            this.result = result;
+            this.timestamp = timestamp;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in nanoseconds with a bounded relative error, in the style of
+ * HdrHistogram: values below {@link #SUB_BUCKET_COUNT} are counted exactly, larger values in
+ * {@link #SUB_BUCKET_COUNT} linear sub-buckets per power of two, i.e. to within about 3%.
+ * Recording is lock-free and allocation free, and may happen on any thread.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Larger values, about 18 minutes, are counted as this.
+     */
+    private static final long MAX_VALUE = (1L << 40) - 1;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(getIndex(MAX_VALUE) + 1);
+    private final AtomicLong mTotalCount = new AtomicLong();
+    private final AtomicLong mTotalNanos = new AtomicLong();
+    private final AtomicLong mMaxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        mCounts.incrementAndGet(getIndex(Math.min(nanos, MAX_VALUE)));
+        mTotalCount.incrementAndGet();
+        mTotalNanos.addAndGet(nanos);
+
+        long max = mMaxNanos.get();
+        while (nanos > max && !mMaxNanos.compareAndSet(max, nanos)) {
+            max = mMaxNanos.get();
+        }
+    }
+
+    public long getCount() {
+        return mTotalCount.get();
+    }
+
+    public long getMeanNanos() {
+        final long count = mTotalCount.get();
+        return count == 0 ? 0 : mTotalNanos.get() / count;
+    }
+
+    public long getMaxNanos() {
+        return mMaxNanos.get();
+    }
+
+    /**
+     * Returns the smallest recorded value such that {@code percentile} percent of the values are
+     * at most it, to within the resolution of the histogram.
+     */
+    public long getPercentileNanos(double percentile) {
+        final long count = mTotalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < mCounts.length(); ++i) {
+            seen += mCounts.get(i);
+            if (seen >= rank) {
+                return Math.min(getHighestValue(i), mMaxNanos.get());
+            }
+        }
+        return mMaxNanos.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < mCounts.length(); ++i) {
+            mCounts.set(i, 0);
+        }
+        mTotalCount.set(0);
+        mTotalNanos.set(0);
+        mMaxNanos.set(0);
+    }
+
+    /**
+     * Returns a one line summary, with durations in microseconds.
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "count=%d mean=%.1f p50=%.1f p90=%.1f p99=%.1f max=%.1f",
+                getCount(), getMeanNanos() / 1000.0, getPercentileNanos(50) / 1000.0,
+                getPercentileNanos(90) / 1000.0, getPercentileNanos(99) / 1000.0,
+                getMaxNanos() / 1000.0);
+    }
+
+    private static int getIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        // The power of two, and the next SUB_BUCKET_BITS bits below the leading one.
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        final int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+        return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    private static long getHighestValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        final long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        return ((SUB_BUCKET_COUNT + subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+import java.io.PrintWriter;
+
+/**
+ * Process-wide timers for the stages of evaluating and displaying an expression. Disabled by
+ * default, in which case timing a stage costs a single volatile read:
+ * <pre>
+ * final long start = Metrics.start();
+ * ...
+ * Metrics.stop(Metrics.Stage.EVALUATE, start);
+ * </pre>
+ */
+public final class Metrics {
+
+    public enum Stage {
+        /**
+         * Translating the localized expression to its normalized form.
+         */
+        NORMALIZE,
+
+        /**
+         * Recognizing expressions that are a plain number and need no evaluation.
+         */
+        NUMBER_FAST_PATH,
+
+        /**
+         * Evaluating the normalized expression with the precise or double engine, whether it
+         * succeeds or not.
+         */
+        EVALUATE,
+
+        /**
+         * Rounding the result and laying it out for display.
+         */
+        FORMAT,
+
+        /**
+         * Replacing the digits and symbols of the formatted result with their localized glyphs.
+         */
+        LOCALIZE,
+
+        /**
+         * Finding the text size that fits a display.
+         */
+        FIT_TEXT,
+
+        /**
+         * Running the animation that reveals a result, from start to end.
+         */
+        RESULT_ANIMATION,
+    }
+
+    private static volatile boolean sEnabled;
+
+    /**
+     * One per stage, allocated when first enabled.
+     */
+    private static volatile LatencyHistogram[] sHistograms;
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    public static synchronized void setEnabled(boolean enabled) {
+        if (enabled && sHistograms == null) {
+            final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+            for (int i = 0; i < histograms.length; ++i) {
+                histograms[i] = new LatencyHistogram();
+            }
+            sHistograms = histograms;
+        }
+        sEnabled = enabled;
+    }
+
+    /**
+     * Returns the start time to pass to {@link #stop}, or 0 if disabled.
+     */
+    public static long start() {
+        return sEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time since {@code startNanos}, as returned by {@link #start}, for {@code stage}.
+     */
+    public static void stop(Stage stage, long startNanos) {
+        if (startNanos != 0) {
+            sHistograms[stage.ordinal()].record(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Returns the histogram of {@code stage}, or {@code null} if never enabled.
+     */
+    public static LatencyHistogram getHistogram(Stage stage) {
+        final LatencyHistogram[] histograms = sHistograms;
+        return histograms == null ? null : histograms[stage.ordinal()];
+    }
+
+    public static void reset() {
+        final LatencyHistogram[] histograms = sHistograms;
+        if (histograms != null) {
+            for (LatencyHistogram histogram : histograms) {
+                histogram.reset();
+            }
+        }
+    }
+
+    /**
+     * Prints a summary of every stage, in microseconds, each line starting with {@code prefix}.
+     */
+    public static void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.println("Metrics: " + (sEnabled ? "enabled" : "disabled") + " (us)");
+        final LatencyHistogram[] histograms = sHistograms;
+        if (histograms == null) {
+            return;
+        }
+        for (Stage stage : Stage.values()) {
+            writer.print(prefix);
+            writer.print("  ");
+            writer.print(stage.name());
+            writer.print(": ");
+            writer.println(histograms[stage.ordinal()]);
+        }
+    }
+
+    private Metrics() {
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.calculator2;
+
+/**
+ * A state machine recognizing the normalized numbers the calculator produces: decimal digits with
+ * an optional point, sign and exponent (e.g. {@code -1.5E-7}), and {@code Infinity}. Fed one
+ * character at a time, so that it can run alongside normalization.
+ */
+final class NumberRecognizer {
+
+    /**
+     * The state before the first character.
+     */
+    static final int START = 0;
+
+    /**
+     * The state once the characters cannot start a number, it is never left.
+     */
+    static final int REJECT = -1;
+
+    private static final int SIGN = 1;
+    private static final int INTEGER = 2;
+    private static final int POINT = 3;
+    private static final int FRACTION = 4;
+    private static final int EXPONENT = 5;
+    private static final int EXPONENT_SIGN = 6;
+    private static final int EXPONENT_DIGITS = 7;
+
+    private static final String INFINITY = "Infinity";
+
+    /**
+     * State {@code INFINITY_MATCH + n} has matched the first n characters of {@link #INFINITY}.
+     */
+    private static final int INFINITY_MATCH = 8;
+
+    private NumberRecognizer() {
+    }
+
+    /**
+     * Returns the state after {@code c} follows the characters that led to {@code state}.
+     */
+    static int next(int state, char c) {
+        final boolean isDigit = c >= '0' && c <= '9';
+        switch (state) {
+            case START:
+            case SIGN:
+                if (isDigit) {
+                    return INTEGER;
+                } else if (c == '.') {
+                    return POINT;
+                } else if (c == INFINITY.charAt(0)) {
+                    return INFINITY_MATCH + 1;
+                } else if (state == START && (c == '-' || c == '+')) {
+                    return SIGN;
+                }
+                return REJECT;
+            case INTEGER:
+                if (isDigit) {
+                    return INTEGER;
+                } else if (c == '.') {
+                    return FRACTION;
+                }
+                return c == 'E' ? EXPONENT : REJECT;
+            case POINT:
+                return isDigit ? FRACTION : REJECT;
+            case FRACTION:
+                if (isDigit) {
+                    return FRACTION;
+                }
+                return c == 'E' ? EXPONENT : REJECT;
+            case EXPONENT:
+                if (c == '-' || c == '+') {
+                    return EXPONENT_SIGN;
+                }
+                return isDigit ? EXPONENT_DIGITS : REJECT;
+            case EXPONENT_SIGN:
+            case EXPONENT_DIGITS:
+                return isDigit ? EXPONENT_DIGITS : REJECT;
+            case REJECT:
+                return REJECT;
+            default:
+                final int matchedLength = state - INFINITY_MATCH;
+                return matchedLength < INFINITY.length() && c == INFINITY.charAt(matchedLength)
+                        ? state + 1 : REJECT;
+        }
+    }
+
+    /**
+     * Returns {@code true} if the characters that led to {@code state} form a complete number.
+     */
+    static boolean isNumber(int state) {
+        return state == INTEGER || state == FRACTION || state == EXPONENT_DIGITS
+                || state == INFINITY_MATCH + INFINITY.length();
+    }
+}
@@ -0,0 +1,477 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An {@link EvaluationEngine} using arbitrary precision decimal arithmetic, so that results are
+ * only rounded once when converted to a double for display. Supports numbers and the
+ * {@code + - * / ^ ! √} operators following arity's precedence rules, anything else (functions,
+ * constants, non-integer powers, results that would be infinite or NaN) is reported as
+ * unsupported and must be evaluated by {@link ArityEvaluationEngine}.
+ * <p>
+ * The values of closed parenthesized groups, powers, square roots and factorials are memoized by
+ * their source text across evaluations, so that while an expression is typed each of them is only
+ * computed once rather than on every keystroke. Only this engine's own operators are memoized:
+ * expressions with function applications such as {@code sin(pi/4)} or {@code ln(2)} are never
+ * evaluated here, and are only cached as whole expressions by {@link ArityEvaluationEngine}.
+ * <p>
+ * Evaluations are bounded by an {@link EvaluationBudget}: one that would exceed it is abandoned
+ * with an {@link EvaluationBudget.ExceededException}. Not thread-safe.
+ */
+public class PreciseEvaluationEngine implements EvaluationEngine {
+
+    /**
+     * Characters that may appear in an expression supported by this engine.
+     */
+    private static final String SUPPORTED_CHARS = "0123456789.E+-*/^!√()";
+
+    private static final char SQRT = '√';
+
+    /**
+     * Precision used for inexact operations (division, square roots and large powers).
+     */
+    private static final MathContext MATH_CONTEXT = MathContext.DECIMAL128;
+
+    /**
+     * Exact intermediate results with more digits than this are rounded to {@link #MATH_CONTEXT}.
+     */
+    private static final int MAX_EXACT_DIGITS = 1000;
+
+    /**
+     * The largest exponent allowed in number literals and integer powers.
+     */
+    private static final int MAX_EXPONENT = 9999;
+
+    /**
+     * The largest factorial that is finite as a double.
+     */
+    private static final int MAX_FACTORIAL = 170;
+
+    /**
+     * The maximum number of subexpression values to keep in {@link #mValueCache}.
+     */
+    private static final int MAX_CACHED_VALUES = 64;
+
+    /**
+     * Values of parenthesized groups, powers, square roots and factorials keyed by their source
+     * text, in least recently used order.
+     */
+    private final Map<String, BigDecimal> mValueCache =
+            new LinkedHashMap<String, BigDecimal>(16, 0.75f, true /* accessOrder */) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, BigDecimal> eldest) {
+                    return size() > MAX_CACHED_VALUES;
+                }
+            };
+
+    private String mExpr;
+    private int mPosition;
+
+    private EvaluationBudget mBudget = EvaluationBudget.UNLIMITED;
+    private int mOperationCount;
+    private long mStartNanos;
+
+    /**
+     * For each opening parenthesis of {@link #mExpr}, the index of the matching closing
+     * parenthesis or -1 if there is none.
+     */
+    private int[] mClosingParentheses = new int[0];
+    private int[] mOpenParentheses = new int[0];
+
+    /**
+     * Returns {@code true} if {@code expr} only contains characters this engine understands.
+     * Expressions that pass may still be unsupported, e.g. {@code 2^0.5}.
+     */
+    public static boolean isSupported(String expr) {
+        if (expr.length() == 0) {
+            return false;
+        }
+        for (int i = 0; i < expr.length(); ++i) {
+            if (SUPPORTED_CHARS.indexOf(expr.charAt(i)) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sets the budget of subsequent evaluations, {@link EvaluationBudget#UNLIMITED} by default.
+     */
+    public void setBudget(EvaluationBudget budget) {
+        mBudget = budget;
+    }
+
+    @Override
+    public double evaluate(String expr) {
+        return evaluateExact(expr).doubleValue();
+    }
+
+    /**
+     * Evaluates {@code expr}, returning the unrounded result.
+     *
+     * @throws EvaluationBudget.ExceededException if the evaluation exceeds the budget.
+     */
+    public BigDecimal evaluateExact(String expr) {
+        mExpr = expr;
+        mPosition = 0;
+        mOperationCount = 0;
+        mStartNanos = System.nanoTime();
+        matchParentheses();
+        try {
+            final BigDecimal result = parseExpression();
+            if (mPosition != mExpr.length()) {
+                throw unsupported();
+            }
+            return result;
+        } finally {
+            mExpr = null;
+        }
+    }
+
+    private BigDecimal parseExpression() {
+        BigDecimal value = parseTerm();
+        while (true) {
+            if (consume('+')) {
+                final BigDecimal addend = parseTerm();
+                spend(1, value, addend);
+                value = add(value, addend);
+            } else if (consume('-')) {
+                final BigDecimal subtrahend = parseTerm();
+                spend(1, value, subtrahend);
+                value = add(value, subtrahend.negate());
+            } else {
+                return value;
+            }
+        }
+    }
+
+    private BigDecimal parseTerm() {
+        BigDecimal value = parseUnary();
+        while (true) {
+            if (consume('*')) {
+                final BigDecimal multiplicand = parseUnary();
+                spend(1, value, multiplicand);
+                value = limit(value.multiply(multiplicand));
+            } else if (consume('/')) {
+                final BigDecimal divisor = parseUnary();
+                if (divisor.signum() == 0) {
+                    throw unsupported();
+                }
+                spend(1, value, divisor);
+                value = value.divide(divisor, MATH_CONTEXT);
+            } else if (startsOperand()) {
+                // Implicit multiplication, e.g. 2(3) or 2√4.
+                final BigDecimal multiplicand = parseUnary();
+                spend(1, value, multiplicand);
+                value = limit(value.multiply(multiplicand));
+            } else {
+                return value;
+            }
+        }
+    }
+
+    private BigDecimal parseUnary() {
+        if (consume('-')) {
+            return parseUnary().negate();
+        } else if (consume('+')) {
+            return parseUnary();
+        }
+        return parsePower();
+    }
+
+    private BigDecimal parsePower() {
+        final int start = mPosition;
+        final BigDecimal base = parsePostfix();
+        if (consume('^')) {
+            // Powers are right associative and the exponent may have a sign, e.g. 2^-3^2.
+            final BigDecimal exponent = parseUnary();
+            final String key = mExpr.substring(start, mPosition);
+            BigDecimal value = mValueCache.get(key);
+            if (value == null) {
+                value = pow(base, exponent);
+                mValueCache.put(key, value);
+            }
+            return value;
+        }
+        return base;
+    }
+
+    private BigDecimal parsePostfix() {
+        final int start = mPosition;
+        BigDecimal value = parsePrimary();
+        while (consume('!')) {
+            final String key = mExpr.substring(start, mPosition);
+            final BigDecimal cached = mValueCache.get(key);
+            if (cached != null) {
+                value = cached;
+            } else {
+                value = factorial(value);
+                mValueCache.put(key, value);
+            }
+        }
+        return value;
+    }
+
+    private BigDecimal parsePrimary() {
+        final int start = mPosition;
+        if (consume(SQRT)) {
+            // √ binds tighter than any other operator, e.g. √4! is (√4)!. arity applies a
+            // following sign to the rest of the operand instead (√-0! is √-(0!)), leave that to
+            // the double engine.
+            if (peek('-') || peek('+')) {
+                throw unsupported();
+            }
+            final BigDecimal operand = parsePrimary();
+            final String key = mExpr.substring(start, mPosition);
+            BigDecimal value = mValueCache.get(key);
+            if (value == null) {
+                value = sqrt(operand);
+                mValueCache.put(key, value);
+            }
+            return value;
+        }
+        if (consume('(')) {
+            // A closed group has the same value wherever it appears.
+            final int end = mClosingParentheses[start] + 1;
+            final String key = end == 0 ? null : mExpr.substring(start, end);
+            if (key != null) {
+                final BigDecimal cached = mValueCache.get(key);
+                if (cached != null) {
+                    mPosition = end;
+                    return cached;
+                }
+            }
+
+            final BigDecimal value = parseExpression();
+            // Unbalanced parentheses are implicitly closed at the end of the expression.
+            if (!consume(')') && mPosition != mExpr.length()) {
+                throw unsupported();
+            }
+            if (key != null && mPosition == end) {
+                mValueCache.put(key, value);
+            }
+            return value;
+        }
+        return parseNumber();
+    }
+
+    private BigDecimal parseNumber() {
+        final int start = mPosition;
+        final int length = mExpr.length();
+        boolean hasDigits = false;
+        while (mPosition < length && isDigit(mExpr.charAt(mPosition))) {
+            ++mPosition;
+            hasDigits = true;
+        }
+        if (consume('.')) {
+            while (mPosition < length && isDigit(mExpr.charAt(mPosition))) {
+                ++mPosition;
+                hasDigits = true;
+            }
+        }
+        if (!hasDigits) {
+            throw unsupported();
+        }
+
+        final int mantissaEnd = mPosition;
+        int exponent = 0;
+        if (consume('E')) {
+            final boolean negative = consume('-');
+            final int exponentStart = mPosition;
+            while (mPosition < length && isDigit(mExpr.charAt(mPosition))) {
+                exponent = exponent * 10 + (mExpr.charAt(mPosition) - '0');
+                if (exponent > MAX_EXPONENT) {
+                    throw unsupported();
+                }
+                ++mPosition;
+            }
+            if (mPosition == exponentStart) {
+                throw unsupported();
+            }
+            if (negative) {
+                exponent = -exponent;
+            }
+        }
+
+        if (mantissaEnd - start > mBudget.getMaxDigits()) {
+            throw new EvaluationBudget.ExceededException();
+        }
+
+        // BigDecimal does not accept a trailing decimal point (e.g. "5.").
+        int end = mantissaEnd;
+        if (mExpr.charAt(end - 1) == '.') {
+            --end;
+        }
+        final BigDecimal mantissa = new BigDecimal(mExpr.substring(start, end));
+        return exponent == 0 ? mantissa : mantissa.scaleByPowerOfTen(exponent);
+    }
+
+    /**
+     * Fills {@link #mClosingParentheses} for {@link #mExpr}.
+     */
+    private void matchParentheses() {
+        final int length = mExpr.length();
+        if (mClosingParentheses.length < length) {
+            mClosingParentheses = new int[length];
+            mOpenParentheses = new int[length];
+        }
+
+        int depth = 0;
+        for (int i = 0; i < length; ++i) {
+            final char c = mExpr.charAt(i);
+            if (c == '(') {
+                mClosingParentheses[i] = -1;
+                mOpenParentheses[depth++] = i;
+            } else if (c == ')' && depth > 0) {
+                mClosingParentheses[mOpenParentheses[--depth]] = i;
+            }
+        }
+    }
+
+    private BigDecimal pow(BigDecimal base, BigDecimal exponent) {
+        final int n;
+        try {
+            n = exponent.intValueExact();
+        } catch (ArithmeticException e) {
+            // Not an integer, or too large.
+            throw unsupported();
+        }
+        if (Math.abs(n) > MAX_EXPONENT || (n < 0 && base.signum() == 0)) {
+            throw unsupported();
+        }
+        // Exponentiation by squaring.
+        spend(Integer.SIZE - Integer.numberOfLeadingZeros(Math.abs(n)), base, exponent);
+
+        if (n < 0) {
+            return BigDecimal.ONE.divide(base.pow(-n, MATH_CONTEXT), MATH_CONTEXT);
+        } else if ((long) base.precision() * n > MAX_EXACT_DIGITS) {
+            return base.pow(n, MATH_CONTEXT);
+        }
+        return base.pow(n);
+    }
+
+    private BigDecimal factorial(BigDecimal value) {
+        final int n;
+        try {
+            n = value.intValueExact();
+        } catch (ArithmeticException e) {
+            throw unsupported();
+        }
+        if (n < 0 || n > MAX_FACTORIAL) {
+            throw unsupported();
+        }
+        spend(n, value, value);
+
+        BigInteger result = BigInteger.ONE;
+        for (int i = 2; i <= n; ++i) {
+            result = result.multiply(BigInteger.valueOf(i));
+        }
+        return new BigDecimal(result);
+    }
+
+    private BigDecimal sqrt(BigDecimal value) {
+        if (value.signum() < 0) {
+            throw unsupported();
+        } else if (value.signum() == 0) {
+            return BigDecimal.ZERO;
+        }
+
+        // Newton's method, starting from the double approximation when it is in range.
+        final double estimate = Math.sqrt(value.doubleValue());
+        BigDecimal x = estimate > 0.0 && !Double.isInfinite(estimate)
+                ? new BigDecimal(estimate) : value;
+        final BigDecimal two = BigDecimal.valueOf(2);
+        for (int i = 0; i < 100; ++i) {
+            spend(1, value, x);
+            final BigDecimal next = x.add(value.divide(x, MATH_CONTEXT)).divide(two, MATH_CONTEXT);
+            if (next.compareTo(x) == 0) {
+                break;
+            }
+            x = next;
+        }
+        return x;
+    }
+
+    /**
+     * Accounts for {@code operations} arithmetic operations on {@code a} and {@code b}.
+     *
+     * @throws EvaluationBudget.ExceededException if that exceeds the budget.
+     */
+    private void spend(int operations, BigDecimal a, BigDecimal b) {
+        mOperationCount += operations;
+        if (mOperationCount > mBudget.getMaxOperations()
+                || a.precision() > mBudget.getMaxDigits()
+                || b.precision() > mBudget.getMaxDigits()
+                || System.nanoTime() - mStartNanos > mBudget.getMaxTimeNanos()) {
+            throw new EvaluationBudget.ExceededException();
+        }
+    }
+
+    /**
+     * Returns {@code a + b}, exactly unless the exact sum would have more than
+     * {@link #MAX_EXACT_DIGITS} digits, e.g. 1E9999+1.
+     */
+    private static BigDecimal add(BigDecimal a, BigDecimal b) {
+        // The exact sum spans from the most significant to the least significant digit of either.
+        final long digits = Math.max((long) a.precision() - a.scale(),
+                (long) b.precision() - b.scale()) + Math.max(a.scale(), b.scale());
+        return digits > MAX_EXACT_DIGITS ? a.add(b, MATH_CONTEXT) : limit(a.add(b));
+    }
+
+    private static BigDecimal limit(BigDecimal value) {
+        return value.precision() > MAX_EXACT_DIGITS ? value.round(MATH_CONTEXT) : value;
+    }
+
+    private boolean startsOperand() {
+        if (mPosition == mExpr.length()) {
+            return false;
+        }
+        final char c = mExpr.charAt(mPosition);
+        if (c == '(' || c == SQRT) {
+            return true;
+        }
+        // A number may only directly follow a closing parenthesis or factorial, e.g. (2)3.
+        final char previous = mExpr.charAt(mPosition - 1);
+        return (c == '.' || isDigit(c)) && (previous == ')' || previous == '!');
+    }
+
+    private boolean peek(char c) {
+        return mPosition < mExpr.length() && mExpr.charAt(mPosition) == c;
+    }
+
+    private boolean consume(char c) {
+        if (peek(c)) {
+            ++mPosition;
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static UnsupportedOperationException unsupported() {
+        return new UnsupportedExpressionException();
+    }
+}
@@ -0,0 +1,606 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.calculator2;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * An {@link EvaluationEngine} using exact rational arithmetic for expressions made of numbers,
+ * {@code + - * /} and parentheses, so that results are only rounded once when converted to a
+ * double for display, e.g. 1/3*3 is exactly 1. Follows the same grammar as
+ * {@link PreciseEvaluationEngine}, anything else (including division by zero) is reported as
+ * unsupported.
+ * <p>
+ * Values are fractions of longs in lowest terms, kept on an operand stack of primitive arrays so
+ * that typical expressions evaluate without allocating. An operation that would overflow a long
+ * is carried out with {@link BigInteger}s instead, and its result is demoted back to longs once it
+ * fits again.
+ * <p>
+ * Evaluations are bounded by an {@link EvaluationBudget}: one that would exceed it is abandoned
+ * with an {@link EvaluationBudget.ExceededException}. Not thread-safe.
+ */
+public class RationalEvaluationEngine implements EvaluationEngine {
+
+    /**
+     * Characters that may appear in an expression supported by this engine.
+     */
+    private static final String SUPPORTED_CHARS = "0123456789.E+-*/()";
+
+    /**
+     * Returned by the long arithmetic helpers on overflow. Never a valid numerator or
+     * denominator, so that every valid long can be negated.
+     */
+    private static final long OVERFLOW = Long.MIN_VALUE;
+
+    /**
+     * Numerators and denominators up to this magnitude convert to double exactly.
+     */
+    private static final long MAX_EXACT_DOUBLE = 1L << 53;
+
+    /**
+     * The largest exponent allowed in number literals, as for {@link PreciseEvaluationEngine}.
+     */
+    private static final int MAX_EXPONENT = 9999;
+
+    /**
+     * The number of bits in the significand of a double, and the exponents of its largest finite
+     * binade and of its smallest subnormal.
+     */
+    private static final int SIGNIFICAND_BITS = 53;
+    private static final int MAX_DOUBLE_EXPONENT = 1023;
+    private static final int MIN_SUBNORMAL_EXPONENT = -1074;
+
+    /**
+     * An upper bound of the number of bits per decimal digit.
+     */
+    private static final double BITS_PER_DIGIT = 3.33;
+
+    private static final long[] POWERS_OF_TEN = new long[19];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; ++i) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private String mExpr;
+    private int mPosition;
+
+    private EvaluationBudget mBudget = EvaluationBudget.UNLIMITED;
+    private long mMaxBits;
+    private long mStartNanos;
+
+    /**
+     * The operand stack. Value i is mNumerators[i] / mDenominators[i], or if mBigNumerators[i] is
+     * not {@code null}, mBigNumerators[i] / mBigDenominators[i]. Denominators are positive.
+     */
+    private long[] mNumerators = new long[16];
+    private long[] mDenominators = new long[16];
+    private BigInteger[] mBigNumerators = new BigInteger[16];
+    private BigInteger[] mBigDenominators = new BigInteger[16];
+    private int mSize;
+
+    /**
+     * The largest size the stack reached during the current evaluation.
+     */
+    private int mMaxSize;
+
+    /**
+     * Returns {@code true} if {@code expr} only contains characters this engine understands.
+     * Expressions that pass may still be unsupported, e.g. {@code 1/0}.
+     */
+    public static boolean isSupported(String expr) {
+        if (expr.length() == 0) {
+            return false;
+        }
+        for (int i = 0; i < expr.length(); ++i) {
+            if (SUPPORTED_CHARS.indexOf(expr.charAt(i)) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sets the budget of subsequent evaluations, {@link EvaluationBudget#UNLIMITED} by default.
+     */
+    public void setBudget(EvaluationBudget budget) {
+        mBudget = budget;
+    }
+
+    /**
+     * @throws EvaluationBudget.ExceededException if the evaluation exceeds the budget.
+     */
+    @Override
+    public double evaluate(String expr) {
+        mExpr = expr;
+        mPosition = 0;
+        mSize = 0;
+        mMaxBits = (long) Math.ceil(mBudget.getMaxDigits() * BITS_PER_DIGIT);
+        mStartNanos = System.nanoTime();
+        try {
+            parseExpression();
+            if (mPosition != mExpr.length()) {
+                throw unsupported();
+            }
+            return toDouble(0);
+        } finally {
+            mExpr = null;
+            // Drop references to large values, which may be anywhere below the largest size.
+            Arrays.fill(mBigNumerators, 0, mMaxSize, null);
+            Arrays.fill(mBigDenominators, 0, mMaxSize, null);
+            mMaxSize = 0;
+        }
+    }
+
+    private void parseExpression() {
+        parseTerm();
+        while (true) {
+            if (consume('+')) {
+                parseTerm();
+                add();
+            } else if (consume('-')) {
+                parseTerm();
+                negate();
+                add();
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void parseTerm() {
+        parseUnary();
+        while (true) {
+            if (consume('*')) {
+                parseUnary();
+                multiply();
+            } else if (consume('/')) {
+                parseUnary();
+                invert();
+                multiply();
+            } else if (startsOperand()) {
+                // Implicit multiplication, e.g. 2(3) or (2)3.
+                parseUnary();
+                multiply();
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void parseUnary() {
+        if (consume('-')) {
+            parseUnary();
+            negate();
+        } else if (consume('+')) {
+            parseUnary();
+        } else {
+            parsePrimary();
+        }
+    }
+
+    private void parsePrimary() {
+        if (consume('(')) {
+            parseExpression();
+            // Unbalanced parentheses are implicitly closed at the end of the expression.
+            if (!consume(')') && mPosition != mExpr.length()) {
+                throw unsupported();
+            }
+            return;
+        }
+        parseNumber();
+    }
+
+    private void parseNumber() {
+        final int length = mExpr.length();
+        long mantissa = 0;
+        BigInteger bigMantissa = null;
+        int digitCount = 0;
+        int fractionDigitCount = 0;
+        boolean hasDigits = false;
+        boolean isFraction = false;
+        while (mPosition < length) {
+            final char c = mExpr.charAt(mPosition);
+            if (c == '.' && !isFraction) {
+                isFraction = true;
+            } else if (isDigit(c)) {
+                hasDigits = true;
+                if (isFraction) {
+                    ++fractionDigitCount;
+                }
+                if (mantissa != 0 || c != '0') {
+                    if (++digitCount > mBudget.getMaxDigits()) {
+                        throw new EvaluationBudget.ExceededException();
+                    }
+                }
+                if (bigMantissa == null && mantissa < POWERS_OF_TEN[17]) {
+                    mantissa = mantissa * 10 + (c - '0');
+                } else {
+                    if (bigMantissa == null) {
+                        bigMantissa = BigInteger.valueOf(mantissa);
+                    }
+                    bigMantissa = bigMantissa.multiply(BigInteger.TEN)
+                            .add(BigInteger.valueOf(c - '0'));
+                }
+            } else {
+                break;
+            }
+            ++mPosition;
+        }
+        if (!hasDigits) {
+            throw unsupported();
+        }
+
+        int exponent = 0;
+        if (consume('E')) {
+            final boolean negative = consume('-');
+            final int exponentStart = mPosition;
+            while (mPosition < length && isDigit(mExpr.charAt(mPosition))) {
+                exponent = exponent * 10 + (mExpr.charAt(mPosition) - '0');
+                if (exponent > MAX_EXPONENT) {
+                    throw unsupported();
+                }
+                ++mPosition;
+            }
+            if (mPosition == exponentStart) {
+                throw unsupported();
+            }
+            if (negative) {
+                exponent = -exponent;
+            }
+        }
+
+        // The value is mantissa * 10^scale.
+        final int scale = exponent - fractionDigitCount;
+        if (Math.abs(scale) > mBudget.getMaxDigits()) {
+            throw new EvaluationBudget.ExceededException();
+        }
+        if (bigMantissa == null && scale >= 0 && scale < POWERS_OF_TEN.length) {
+            final long numerator = multiply(mantissa, POWERS_OF_TEN[scale]);
+            if (numerator != OVERFLOW) {
+                push(numerator, 1);
+                return;
+            }
+        } else if (bigMantissa == null && scale < 0 && -scale < POWERS_OF_TEN.length) {
+            push(mantissa, POWERS_OF_TEN[-scale]);
+            reduce(mSize - 1);
+            return;
+        }
+        final BigInteger numerator = bigMantissa != null ? bigMantissa
+                : BigInteger.valueOf(mantissa);
+        final BigInteger power = BigInteger.TEN.pow(Math.abs(scale));
+        if (scale >= 0) {
+            pushBig(numerator.multiply(power), BigInteger.ONE);
+        } else {
+            pushBig(numerator, power);
+        }
+    }
+
+    /**
+     * Replaces the top two values of the stack by their sum.
+     */
+    private void add() {
+        final int i = mSize - 2;
+        final int j = mSize - 1;
+        --mSize;
+        if (mBigNumerators[i] == null && mBigNumerators[j] == null) {
+            final long d1 = mDenominators[i];
+            final long d2 = mDenominators[j];
+            if (d1 == d2) {
+                final long numerator = add(mNumerators[i], mNumerators[j]);
+                if (numerator != OVERFLOW) {
+                    mNumerators[i] = numerator;
+                    reduce(i);
+                    return;
+                }
+            } else {
+                // Over the least common multiple of the denominators.
+                final long gcd = gcd(d1, d2);
+                final long denominator = multiply(d1, d2 / gcd);
+                final long numerator = add(multiply(mNumerators[i], d2 / gcd),
+                        multiply(mNumerators[j], d1 / gcd));
+                if (denominator != OVERFLOW && numerator != OVERFLOW) {
+                    mNumerators[i] = numerator;
+                    mDenominators[i] = denominator;
+                    reduce(i);
+                    return;
+                }
+            }
+        }
+        spend(i, j);
+        setBig(i, getBigNumerator(i).multiply(getBigDenominator(j))
+                        .add(getBigNumerator(j).multiply(getBigDenominator(i))),
+                getBigDenominator(i).multiply(getBigDenominator(j)));
+    }
+
+    /**
+     * Replaces the top two values of the stack by their product.
+     */
+    private void multiply() {
+        final int i = mSize - 2;
+        final int j = mSize - 1;
+        --mSize;
+        if (mBigNumerators[i] == null && mBigNumerators[j] == null) {
+            // Cancel common factors first, the product of the reduced parts is in lowest terms.
+            final long gcd1 = gcd(Math.abs(mNumerators[i]), mDenominators[j]);
+            final long gcd2 = gcd(Math.abs(mNumerators[j]), mDenominators[i]);
+            final long numerator = multiply(mNumerators[i] / gcd1, mNumerators[j] / gcd2);
+            final long denominator = multiply(mDenominators[i] / gcd2, mDenominators[j] / gcd1);
+            if (numerator != OVERFLOW && denominator != OVERFLOW) {
+                mNumerators[i] = numerator;
+                mDenominators[i] = denominator;
+                return;
+            }
+        }
+        spend(i, j);
+        setBig(i, getBigNumerator(i).multiply(getBigNumerator(j)),
+                getBigDenominator(i).multiply(getBigDenominator(j)));
+    }
+
+    private void negate() {
+        final int i = mSize - 1;
+        if (mBigNumerators[i] == null) {
+            mNumerators[i] = -mNumerators[i];
+        } else {
+            mBigNumerators[i] = mBigNumerators[i].negate();
+        }
+    }
+
+    private void invert() {
+        final int i = mSize - 1;
+        if (mBigNumerators[i] == null) {
+            final long numerator = mNumerators[i];
+            if (numerator == 0) {
+                throw unsupported();
+            }
+            mNumerators[i] = numerator < 0 ? -mDenominators[i] : mDenominators[i];
+            mDenominators[i] = Math.abs(numerator);
+        } else {
+            final BigInteger numerator = mBigNumerators[i];
+            if (numerator.signum() == 0) {
+                throw unsupported();
+            }
+            mBigNumerators[i] = numerator.signum() < 0 ? mBigDenominators[i].negate()
+                    : mBigDenominators[i];
+            mBigDenominators[i] = numerator.abs();
+        }
+    }
+
+    /**
+     * Returns value {@code i} of the stack, rounded to the nearest double.
+     */
+    private double toDouble(int i) {
+        if (mBigNumerators[i] == null) {
+            final long numerator = mNumerators[i];
+            final long denominator = mDenominators[i];
+            if (denominator == 1) {
+                return numerator;
+            } else if (Math.abs(numerator) <= MAX_EXACT_DOUBLE
+                    && denominator <= MAX_EXACT_DOUBLE) {
+                // Both convert exactly, so the division is the only rounding.
+                return (double) numerator / denominator;
+            }
+        }
+        final BigInteger numerator = getBigNumerator(i);
+        final double magnitude = toDouble(numerator.abs(), getBigDenominator(i));
+        return numerator.signum() < 0 ? -magnitude : magnitude;
+    }
+
+    /**
+     * Returns {@code numerator / denominator}, both positive, rounded to the nearest double with
+     * ties to even. The quotient is computed in units of the last place of that double, so the
+     * rounding of the remainder is the only one.
+     */
+    private static double toDouble(BigInteger numerator, BigInteger denominator) {
+        // The value is in [2^exponent, 2^(exponent + 1)).
+        int exponent = numerator.bitLength() - denominator.bitLength();
+        if (exponent >= 0 ? numerator.compareTo(denominator.shiftLeft(exponent)) < 0
+                : numerator.shiftLeft(-exponent).compareTo(denominator) < 0) {
+            --exponent;
+        }
+        if (exponent > MAX_DOUBLE_EXPONENT) {
+            return Double.POSITIVE_INFINITY;
+        }
+        final int ulpExponent =
+                Math.max(exponent - (SIGNIFICAND_BITS - 1), MIN_SUBNORMAL_EXPONENT);
+        if (ulpExponent < 0) {
+            numerator = numerator.shiftLeft(-ulpExponent);
+        } else {
+            denominator = denominator.shiftLeft(ulpExponent);
+        }
+        final BigInteger[] quotientAndRemainder = numerator.divideAndRemainder(denominator);
+        // Below 2^53, and at most 2^53 once rounded, so exact as a double.
+        long units = quotientAndRemainder[0].longValue();
+        final int half = quotientAndRemainder[1].shiftLeft(1).compareTo(denominator);
+        if (half > 0 || (half == 0 && (units & 1) != 0)) {
+            ++units;
+        }
+        // Exact, or infinite if rounding up overflowed.
+        return Math.scalb((double) units, ulpExponent);
+    }
+
+    private void push(long numerator, long denominator) {
+        ensureCapacity();
+        mNumerators[mSize] = numerator;
+        mDenominators[mSize] = denominator;
+        mBigNumerators[mSize] = null;
+        mBigDenominators[mSize] = null;
+        ++mSize;
+        mMaxSize = Math.max(mMaxSize, mSize);
+    }
+
+    private void pushBig(BigInteger numerator, BigInteger denominator) {
+        ensureCapacity();
+        setBig(mSize++, numerator, denominator);
+        mMaxSize = Math.max(mMaxSize, mSize);
+    }
+
+    private void ensureCapacity() {
+        if (mSize == mNumerators.length) {
+            final int capacity = mSize * 2;
+            final long[] numerators = new long[capacity];
+            final long[] denominators = new long[capacity];
+            final BigInteger[] bigNumerators = new BigInteger[capacity];
+            final BigInteger[] bigDenominators = new BigInteger[capacity];
+            System.arraycopy(mNumerators, 0, numerators, 0, mSize);
+            System.arraycopy(mDenominators, 0, denominators, 0, mSize);
+            System.arraycopy(mBigNumerators, 0, bigNumerators, 0, mSize);
+            System.arraycopy(mBigDenominators, 0, bigDenominators, 0, mSize);
+            mNumerators = numerators;
+            mDenominators = denominators;
+            mBigNumerators = bigNumerators;
+            mBigDenominators = bigDenominators;
+        }
+    }
+
+    /**
+     * Sets value {@code i} to {@code numerator / denominator} in lowest terms, demoted to longs if
+     * it fits. {@code denominator} must be positive.
+     */
+    private void setBig(int i, BigInteger numerator, BigInteger denominator) {
+        final BigInteger gcd = numerator.gcd(denominator);
+        if (!gcd.equals(BigInteger.ONE) && gcd.signum() != 0) {
+            numerator = numerator.divide(gcd);
+            denominator = denominator.divide(gcd);
+        }
+        if (numerator.bitLength() < Long.SIZE && denominator.bitLength() < Long.SIZE) {
+            // bitLength excludes the sign, so neither is Long.MIN_VALUE.
+            mNumerators[i] = numerator.longValue();
+            mDenominators[i] = denominator.longValue();
+            mBigNumerators[i] = null;
+            mBigDenominators[i] = null;
+        } else {
+            mBigNumerators[i] = numerator;
+            mBigDenominators[i] = denominator;
+        }
+    }
+
+    private BigInteger getBigNumerator(int i) {
+        final BigInteger numerator = mBigNumerators[i];
+        return numerator != null ? numerator : BigInteger.valueOf(mNumerators[i]);
+    }
+
+    private BigInteger getBigDenominator(int i) {
+        final BigInteger denominator = mBigDenominators[i];
+        return denominator != null ? denominator : BigInteger.valueOf(mDenominators[i]);
+    }
+
+    /**
+     * Divides long value {@code i} by the greatest common divisor of its numerator and
+     * denominator.
+     */
+    private void reduce(int i) {
+        final long gcd = gcd(Math.abs(mNumerators[i]), mDenominators[i]);
+        if (gcd > 1) {
+            mNumerators[i] /= gcd;
+            mDenominators[i] /= gcd;
+        }
+    }
+
+    /**
+     * Checks the budget before operating on the {@link BigInteger} values {@code i} and
+     * {@code j}.
+     *
+     * @throws EvaluationBudget.ExceededException if that exceeds the budget.
+     */
+    private void spend(int i, int j) {
+        if (getBitLength(i) > mMaxBits || getBitLength(j) > mMaxBits
+                || System.nanoTime() - mStartNanos > mBudget.getMaxTimeNanos()) {
+            throw new EvaluationBudget.ExceededException();
+        }
+    }
+
+    private long getBitLength(int i) {
+        return mBigNumerators[i] == null ? Long.SIZE
+                : (long) mBigNumerators[i].bitLength() + mBigDenominators[i].bitLength();
+    }
+
+    private boolean startsOperand() {
+        if (mPosition == mExpr.length()) {
+            return false;
+        }
+        final char c = mExpr.charAt(mPosition);
+        if (c == '(') {
+            return true;
+        }
+        // A number may only directly follow a closing parenthesis, e.g. (2)3.
+        return (c == '.' || isDigit(c)) && mExpr.charAt(mPosition - 1) == ')';
+    }
+
+    private boolean consume(char c) {
+        if (mPosition < mExpr.length() && mExpr.charAt(mPosition) == c) {
+            ++mPosition;
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Returns {@code a + b}, or {@link #OVERFLOW} if either is or the sum does not fit.
+     */
+    private static long add(long a, long b) {
+        final long sum = a + b;
+        // Overflow if both operands have the sign the sum lacks.
+        if (a == OVERFLOW || b == OVERFLOW || ((a ^ sum) & (b ^ sum)) < 0 || sum == OVERFLOW) {
+            return OVERFLOW;
+        }
+        return sum;
+    }
+
+    /**
+     * Returns {@code a * b}, or {@link #OVERFLOW} if either is or the product does not fit.
+     */
+    private static long multiply(long a, long b) {
+        if (a == OVERFLOW || b == OVERFLOW) {
+            return OVERFLOW;
+        }
+        if (((Math.abs(a) | Math.abs(b)) >>> 31) == 0) {
+            // Both below 2^31, the product is below 2^62.
+            return a * b;
+        }
+        final long product = a * b;
+        if (a != 0 && (product / a != b || product == OVERFLOW)) {
+            return OVERFLOW;
+        }
+        return product;
+    }
+
+    /**
+     * Returns the greatest common divisor of the non-negative {@code a} and {@code b}, 1 if both
+     * are 0.
+     */
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            final long remainder = a % b;
+            a = b;
+            b = remainder;
+        }
+        return a == 0 ? 1 : a;
+    }
+
+    private static UnsupportedOperationException unsupported() {
+        return new UnsupportedExpressionException();
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+import java.nio.CharBuffer;
+
+/**
+ * Formats results for display, producing exactly the output of arity's
+ * {@code Util.doubleToString(value, maxLength, roundingDigits)} followed by
+ * {@link ExpressionTokenizer#getLocalizedExpression}, but rounding, laying out and localizing in
+ * reusable buffers instead of through a chain of intermediate strings. Not thread-safe.
+ */
+public class ResultFormatter {
+
+    /**
+     * Results are shown in positional notation if their decimal exponent is within this range.
+     */
+    private static final int MIN_POSITIONAL_EXPONENT = -5;
+    private static final int MAX_POSITIONAL_EXPONENT = 10;
+
+    private final int mMaxLength;
+    private final int mSignificantDigits;
+
+    private final char mZeroDigit;
+    private final char mDecimalSeparator;
+    private final String mMinus;
+    private final String mExponent;
+    private final String mInfinity;
+    private final String mNegativeInfinity;
+
+    /**
+     * Receives {@code Double.toString} of the value without allocating a string.
+     */
+    private final StringBuilder mDigits = new StringBuilder(32);
+
+    /**
+     * The normalized result, built in place.
+     */
+    private char[] mBuffer = new char[32];
+    private int mLength;
+
+    /**
+     * The localized result.
+     */
+    private char[] mOutput = new char[32];
+
+    /**
+     * @param maxLength the maximum length of the normalized result, as for arity's
+     *         {@code Util.sizeTruncate}
+     * @param roundingDigits the number of trailing digits of precision to drop
+     */
+    public ResultFormatter(ExpressionSymbols symbols, int maxLength, int roundingDigits) {
+        mMaxLength = maxLength;
+        mSignificantDigits = roundingDigits <= 0 || roundingDigits > 13 ? 17 : 16 - roundingDigits;
+
+        mZeroDigit = symbols.getZeroDigit();
+        mDecimalSeparator = symbols.getDecimalSeparator();
+        mMinus = symbols.getLocalizedSymbol("-");
+        mExponent = symbols.getLocalizedSymbol("E");
+        mInfinity = symbols.getLocalizedSymbol("Infinity");
+        mNegativeInfinity = mMinus + mInfinity;
+    }
+
+    /**
+     * Returns the localized representation of {@code value}, which must not be NaN.
+     */
+    public String format(double value) {
+        if (Double.isInfinite(value)) {
+            return value < 0 ? mNegativeInfinity : mInfinity;
+        }
+
+        long start = Metrics.start();
+        round(value);
+        truncate();
+        Metrics.stop(Metrics.Stage.FORMAT, start);
+
+        start = Metrics.start();
+        // Each normalized character becomes at most one localized symbol.
+        final int maxSymbolLength = Math.max(mMinus.length(), mExponent.length());
+        if (mOutput.length < mLength * maxSymbolLength) {
+            mOutput = new char[mLength * maxSymbolLength];
+        }
+
+        int length = 0;
+        for (int i = 0; i < mLength; ++i) {
+            final char c = mBuffer[i];
+            if (c >= '0' && c <= '9') {
+                mOutput[length++] = (char) (mZeroDigit + c - '0');
+            } else if (c == '.') {
+                mOutput[length++] = mDecimalSeparator;
+            } else if (c == '-') {
+                mMinus.getChars(0, mMinus.length(), mOutput, length);
+                length += mMinus.length();
+            } else if (c == 'E') {
+                mExponent.getChars(0, mExponent.length(), mOutput, length);
+                length += mExponent.length();
+            } else {
+                mOutput[length++] = c;
+            }
+        }
+        final String result = new String(mOutput, 0, length);
+        Metrics.stop(Metrics.Stage.LOCALIZE, start);
+        return result;
+    }
+
+    /**
+     * Appends the normalized representation of {@code value}, which must not be NaN, to
+     * {@code dest}: the result of {@link #format} before localization, e.g. {@code -1.5E-7} or
+     * {@code Infinity}. At most 32 characters are appended.
+     */
+    public void formatNormalized(double value, CharBuffer dest) {
+        if (Double.isInfinite(value)) {
+            dest.put(value < 0 ? "-Infinity" : "Infinity");
+            return;
+        }
+        final long start = Metrics.start();
+        round(value);
+        truncate();
+        Metrics.stop(Metrics.Stage.FORMAT, start);
+        dest.put(mBuffer, 0, mLength);
+    }
+
+    /**
+     * Rounds {@code value} to {@link #mSignificantDigits} and lays it out in positional or
+     * scientific notation, as arity's {@code Util.doubleToString(double, int)}.
+     */
+    private void round(double value) {
+        mDigits.setLength(0);
+        mDigits.append(Math.abs(value));
+
+        // Split Double.toString into its mantissa digits, without the decimal point, and the
+        // decimal exponent of the position following the first digit.
+        final int digitsLength = mDigits.length();
+        mDigits.getChars(0, digitsLength, mBuffer, 0);
+        int mantissaLength = digitsLength;
+        int exponent = 0;
+        for (int i = digitsLength - 1; i >= 0; --i) {
+            if (mBuffer[i] == 'E') {
+                mantissaLength = i;
+                exponent = parseInt(mBuffer, i + 1, digitsLength);
+                break;
+            }
+        }
+
+        int point = mantissaLength;
+        for (int i = 0; i < mantissaLength; ++i) {
+            if (mBuffer[i] == '.') {
+                point = i;
+                break;
+            }
+        }
+        mLength = mantissaLength;
+        if (point < mantissaLength) {
+            System.arraycopy(mBuffer, point + 1, mBuffer, point, mantissaLength - point - 1);
+            --mLength;
+        }
+        exponent += point;
+        final int digitCount = mLength;
+
+        // Leading zeros are not significant.
+        int significantEnd = mSignificantDigits;
+        for (int i = 0; i < digitCount && mBuffer[i] == '0'; ++i) {
+            ++significantEnd;
+        }
+
+        if (significantEnd < digitCount) {
+            if (mBuffer[significantEnd] >= '5') {
+                int i = significantEnd - 1;
+                while (i >= 0 && mBuffer[i] == '9') {
+                    mBuffer[i--] = '0';
+                }
+                if (i >= 0) {
+                    ++mBuffer[i];
+                } else {
+                    insert(0, '1');
+                    ++significantEnd;
+                    ++exponent;
+                }
+            }
+            mLength = significantEnd;
+        }
+
+        if (exponent < MIN_POSITIONAL_EXPONENT || exponent > MAX_POSITIONAL_EXPONENT) {
+            insert(1, '.');
+            --exponent;
+        } else {
+            for (int i = digitCount; i < exponent; ++i) {
+                append('0');
+            }
+            for (int i = exponent; i <= 0; ++i) {
+                insert(0, '0');
+            }
+            insert(exponent <= 0 ? 1 : exponent, '.');
+            exponent = 0;
+        }
+
+        while (mLength > 0 && mBuffer[mLength - 1] == '0') {
+            --mLength;
+        }
+        if (mLength > 0 && mBuffer[mLength - 1] == '.') {
+            --mLength;
+        }
+
+        if (exponent != 0) {
+            append('E');
+            appendInt(exponent);
+        }
+        if (value < 0) {
+            insert(0, '-');
+        }
+    }
+
+    /**
+     * Shortens the result to {@link #mMaxLength}, keeping any exponent, as arity's
+     * {@code Util.sizeTruncate}.
+     */
+    private void truncate() {
+        while (true) {
+            int exponentStart = mLength;
+            for (int i = mLength - 1; i >= 0; --i) {
+                if (mBuffer[i] == 'E') {
+                    exponentStart = i;
+                    break;
+                }
+            }
+            final int exponentLength = mLength - exponentStart;
+            final int keep = Math.min(exponentStart, mMaxLength - exponentLength);
+            if (keep < 1 || (keep < 2 && mLength > 0 && mBuffer[0] == '-')) {
+                return;
+            }
+
+            int point = exponentStart;
+            for (int i = 0; i < mLength; ++i) {
+                if (mBuffer[i] == '.') {
+                    point = i;
+                    break;
+                }
+            }
+
+            if (point <= keep) {
+                System.arraycopy(mBuffer, exponentStart, mBuffer, keep, exponentLength);
+                mLength = keep + exponentLength;
+                return;
+            }
+
+            // The integer part does not fit, switch to scientific notation and try again.
+            int exponent = exponentStart < mLength
+                    ? parseInt(mBuffer, exponentStart + 1, mLength) : 0;
+            final int sign = mBuffer[0] == '-' ? 1 : 0;
+            exponent += point - sign - 1;
+            mLength = exponentStart;
+            insert(sign + 1, '.');
+            append('E');
+            appendInt(exponent);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > mBuffer.length) {
+            final char[] buffer = new char[Math.max(capacity, mBuffer.length * 2)];
+            System.arraycopy(mBuffer, 0, buffer, 0, mLength);
+            mBuffer = buffer;
+        }
+    }
+
+    private void append(char c) {
+        ensureCapacity(mLength + 1);
+        mBuffer[mLength++] = c;
+    }
+
+    private void insert(int index, char c) {
+        ensureCapacity(mLength + 1);
+        System.arraycopy(mBuffer, index, mBuffer, index + 1, mLength - index);
+        mBuffer[index] = c;
+        ++mLength;
+    }
+
+    private void appendInt(int value) {
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+        final int start = mLength;
+        do {
+            append((char) ('0' + value % 10));
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = mLength - 1; i < j; ++i, --j) {
+            final char c = mBuffer[i];
+            mBuffer[i] = mBuffer[j];
+            mBuffer[j] = c;
+        }
+    }
+
+    private static int parseInt(char[] s, int start, int end) {
+        final boolean negative = s[start] == '-';
+        int value = 0;
+        for (int i = negative ? start + 1 : start; i < end; ++i) {
+            value = value * 10 + s[i] - '0';
+        }
+        return negative ? -value : value;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.calculator2;
+
+/**
+ * A ring buffer of (x, y) samples in increasing x order, backed by primitive arrays that are only
+ * reallocated when they need to grow, so that samples can be added and removed at either end
+ * every frame without allocating.
+ */
+public class SampleBuffer {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private double[] mXs = new double[INITIAL_CAPACITY];
+    private double[] mYs = new double[INITIAL_CAPACITY];
+
+    /**
+     * The array index of the first sample, the capacity is always a power of two.
+     */
+    private int mHead;
+    private int mSize;
+
+    public int size() {
+        return mSize;
+    }
+
+    public double getX(int index) {
+        return mXs[(mHead + index) & (mXs.length - 1)];
+    }
+
+    public double getY(int index) {
+        return mYs[(mHead + index) & (mYs.length - 1)];
+    }
+
+    void addFirst(double x, double y) {
+        ensureCapacity(mSize + 1);
+        mHead = (mHead - 1) & (mXs.length - 1);
+        mXs[mHead] = x;
+        mYs[mHead] = y;
+        ++mSize;
+    }
+
+    void addLast(double x, double y) {
+        ensureCapacity(mSize + 1);
+        final int index = (mHead + mSize) & (mXs.length - 1);
+        mXs[index] = x;
+        mYs[index] = y;
+        ++mSize;
+    }
+
+    void removeFirst() {
+        mHead = (mHead + 1) & (mXs.length - 1);
+        --mSize;
+    }
+
+    void removeLast() {
+        --mSize;
+    }
+
+    void clear() {
+        mHead = 0;
+        mSize = 0;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mXs.length) {
+            return;
+        }
+        final double[] xs = new double[mXs.length * 2];
+        final double[] ys = new double[mYs.length * 2];
+        for (int i = 0; i < mSize; ++i) {
+            xs[i] = getX(i);
+            ys[i] = getY(i);
+        }
+        mXs = xs;
+        mYs = ys;
+        mHead = 0;
+    }
+}
@@ -0,0 +1,498 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.calculator2;
+
+import org.javia.arity.Function;
+import org.javia.arity.FunctionAndName;
+import org.javia.arity.Symbols;
+import org.javia.arity.SyntaxException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Named memory registers such as {@code m=42} and user-defined functions such as
+ * {@code f(x)=x^2+1}, backed by an arity {@link Symbols} instance that expressions are compiled
+ * against.
+ *
+ * <p>Arity binds the values and functions a definition refers to when it is compiled, so a
+ * definition must be recompiled whenever one of the definitions it uses changes. Each definition
+ * records the names it uses, and redefining or removing a name recompiles only its transitive
+ * dependents, in dependency order. A dependent that no longer compiles, e.g. because a function
+ * it calls changed arity, is kept with an error and evaluates to NaN until it compiles again.
+ *
+ * <p>Compiled expressions outside of the table can check {@link #hasChangedSince} to find out if
+ * they must be recompiled. Thread-safe.
+ */
+public class SymbolTable {
+
+    /**
+     * Arity looks names up through a key shared by every {@link Symbols}, so compiling on two
+     * instances at once can resolve a name to a symbol of the other expression, e.g. to the
+     * implicit argument x. Held while creating (which compiles the builtins) or compiling on any
+     * instance.
+     */
+    private static final Object COMPILE_LOCK = new Object();
+
+    /**
+     * The names arity defines itself (e.g. sin, pi, e and the implicit arguments x, y and z),
+     * which cannot be redefined.
+     */
+    private static final Set<String> BUILTIN_NAMES =
+            new HashSet<>(Arrays.asList(newSymbols().getDictionary()));
+
+    private final Symbols mSymbols = newSymbols();
+
+    /**
+     * Definitions by name, in the order they were first defined.
+     */
+    private final Map<String, Definition> mDefinitions = new LinkedHashMap<>();
+
+    /**
+     * The names of the definitions using each name, including names that are not (or no longer)
+     * defined, so that defining them later updates their users.
+     */
+    private final Map<String, Set<String>> mDependents = new HashMap<>();
+
+    /**
+     * The generation at which each name last changed value.
+     */
+    private final Map<String, Long> mChangedAt = new HashMap<>();
+
+    /**
+     * Incremented for every change to the table, read without locking by compiled expressions.
+     */
+    private volatile long mGeneration;
+
+    private int mRecompileCount;
+
+    /**
+     * Returns the {@link Symbols} that expressions using the definitions must be compiled with,
+     * through {@link #compile} when other threads compile too.
+     */
+    public Symbols getSymbols() {
+        return mSymbols;
+    }
+
+    /**
+     * Compiles the normalized {@code expr} against the definitions.
+     */
+    public Function compile(String expr) throws SyntaxException {
+        return compile(mSymbols, expr);
+    }
+
+    /**
+     * Compiles the normalized {@code expr} with {@code symbols}, which may be used by other
+     * threads only through this method.
+     */
+    static Function compile(Symbols symbols, String expr) throws SyntaxException {
+        synchronized (COMPILE_LOCK) {
+            return symbols.compile(expr);
+        }
+    }
+
+    private static Symbols newSymbols() {
+        synchronized (COMPILE_LOCK) {
+            return new Symbols();
+        }
+    }
+
+    /**
+     * Returns the current generation, which changes whenever any definition does.
+     */
+    public long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Returns {@code true} if any name used by the normalized {@code expr} was defined, redefined
+     * or removed after {@code generation}.
+     */
+    public synchronized boolean hasChangedSince(String expr, long generation) {
+        if (generation == mGeneration) {
+            return false;
+        }
+        for (String name : getNames(expr)) {
+            final Long changedAt = mChangedAt.get(name);
+            if (changedAt != null && changedAt > generation) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of dependent definitions recompiled so far.
+     */
+    public synchronized int getRecompileCount() {
+        return mRecompileCount;
+    }
+
+    /**
+     * Returns the definition named {@code name}, or {@code null} if there is none.
+     */
+    public synchronized Definition get(String name) {
+        return mDefinitions.get(name);
+    }
+
+    /**
+     * Returns every definition, in the order they were first defined.
+     */
+    public synchronized List<Definition> getDefinitions() {
+        return new ArrayList<>(mDefinitions.values());
+    }
+
+    /**
+     * Defines (or redefines) a register or function from a normalized definition such as
+     * {@code m=42}, {@code f(x)=x^2+a} or {@code g(x,y)=x*y}, then recompiles the definitions
+     * that depend on it. Returns the names whose value changed, starting with the defined name.
+     *
+     * @throws SyntaxException if {@code source} is not a valid definition, redefines a builtin or
+     *         depends on itself; the table is left unchanged
+     */
+    public synchronized Set<String> define(String source) throws SyntaxException {
+        final int equals = source.indexOf('=');
+        if (equals == -1) {
+            throw new SyntaxException();
+        }
+        final String name = parseName(source, equals);
+        if (name == null || BUILTIN_NAMES.contains(name)
+                || PreciseEvaluationEngine.isSupported(name)) {
+            // Names the precise engine accepts (e.g. E) would be read as numbers.
+            throw new SyntaxException();
+        }
+
+        final Set<String> dependencies = getDependencies(source, equals);
+        if (dependencies.contains(name) || !Collections.disjoint(dependencies,
+                getDependents(name))) {
+            // Recursive definitions cannot be compiled ahead of time.
+            throw new SyntaxException();
+        }
+
+        final Definition definition = new Definition(name, source, dependencies);
+        compile(definition);
+        if (definition.mError != null) {
+            throw definition.mError;
+        }
+
+        final Definition previous = mDefinitions.put(name, definition);
+        if (previous != null) {
+            removeDependencies(previous);
+            if (previous.mArity != definition.mArity) {
+                // Arity overloads functions by arity, hide the previous one from dependents.
+                undefine(previous);
+            }
+        }
+        for (String dependency : dependencies) {
+            Set<String> dependents = mDependents.get(dependency);
+            if (dependents == null) {
+                dependents = new HashSet<>();
+                mDependents.put(dependency, dependents);
+            }
+            dependents.add(name);
+        }
+        return update(name);
+    }
+
+    /**
+     * Removes the definition named {@code name}, if any. Definitions that use it evaluate to
+     * NaN until it is defined again. Returns the names whose value changed.
+     */
+    public synchronized Set<String> remove(String name) {
+        final Definition definition = mDefinitions.remove(name);
+        if (definition == null) {
+            return Collections.emptySet();
+        }
+        removeDependencies(definition);
+        undefine(definition);
+        return update(name);
+    }
+
+    /**
+     * Marks {@code name} as changed and recompiles its dependents, returning the changed names.
+     */
+    private Set<String> update(String name) {
+        ++mGeneration;
+        final Set<String> changed = new LinkedHashSet<>();
+        changed.add(name);
+        for (String dependent : sortByDependencies(getDependents(name))) {
+            final Definition definition = mDefinitions.get(dependent);
+            compile(definition);
+            if (definition.mError != null) {
+                undefine(definition);
+            }
+            ++mRecompileCount;
+            changed.add(dependent);
+        }
+        for (String changedName : changed) {
+            mChangedAt.put(changedName, mGeneration);
+        }
+        return changed;
+    }
+
+    /**
+     * Compiles {@code definition} and, if that succeeds, defines it in {@link #mSymbols}.
+     * Failures are recorded in the definition.
+     */
+    private void compile(Definition definition) {
+        definition.mFunction = null;
+        definition.mValue = Double.NaN;
+        definition.mError = null;
+        try {
+            final FunctionAndName compiled;
+            synchronized (COMPILE_LOCK) {
+                compiled = mSymbols.compileWithName(definition.mSource);
+            }
+            definition.mFunction = compiled.function;
+            definition.mArity = compiled.function.arity();
+            if (compiled.function.arity() == 0) {
+                definition.mValue = compiled.function.eval();
+                mSymbols.define(definition.mName, definition.mValue);
+            } else {
+                mSymbols.define(compiled);
+            }
+        } catch (SyntaxException e) {
+            definition.mError = e;
+        }
+    }
+
+    /**
+     * Shadows {@code definition} in {@link #mSymbols}, which cannot forget a name, with a
+     * definition of the same arity that evaluates to NaN.
+     */
+    private void undefine(Definition definition) {
+        final int arity = definition.mArity;
+        if (arity == 0) {
+            mSymbols.define(definition.mName, Double.NaN);
+            return;
+        }
+        final StringBuilder source = new StringBuilder(definition.mName).append('(');
+        for (int i = 0; i < arity; ++i) {
+            source.append(i == 0 ? "" : ",").append("a").append(i);
+        }
+        try {
+            synchronized (COMPILE_LOCK) {
+                mSymbols.define(mSymbols.compileWithName(source.append(")=0/0").toString()));
+            }
+        } catch (SyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void removeDependencies(Definition definition) {
+        for (String dependency : definition.mDependencies) {
+            final Set<String> dependents = mDependents.get(dependency);
+            dependents.remove(definition.mName);
+            if (dependents.isEmpty()) {
+                mDependents.remove(dependency);
+            }
+        }
+    }
+
+    /**
+     * Returns the names of the definitions that use {@code name}, directly or indirectly.
+     */
+    private Set<String> getDependents(String name) {
+        final Set<String> result = new HashSet<>();
+        final List<String> pending = new ArrayList<>();
+        pending.add(name);
+        while (!pending.isEmpty()) {
+            final Set<String> dependents = mDependents.get(pending.remove(pending.size() - 1));
+            if (dependents != null) {
+                for (String dependent : dependents) {
+                    if (result.add(dependent)) {
+                        pending.add(dependent);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns {@code names} ordered so that every definition follows the definitions it uses.
+     */
+    private List<String> sortByDependencies(Set<String> names) {
+        final List<String> sorted = new ArrayList<>(names.size());
+        final Set<String> visited = new HashSet<>();
+        for (String name : names) {
+            visit(name, names, visited, sorted);
+        }
+        return sorted;
+    }
+
+    private void visit(String name, Set<String> names, Set<String> visited, List<String> sorted) {
+        if (!visited.add(name)) {
+            return;
+        }
+        for (String dependency : mDefinitions.get(name).mDependencies) {
+            if (names.contains(dependency)) {
+                visit(dependency, names, visited, sorted);
+            }
+        }
+        sorted.add(name);
+    }
+
+    /**
+     * Returns the name declared left of {@code equals}, e.g. {@code f} for {@code f(x)=x^2}, or
+     * {@code null} if the declaration is not a name with an optional parameter list.
+     */
+    private static String parseName(String source, int equals) {
+        int end = 0;
+        while (end < equals && isNameChar(source.charAt(end), end == 0)) {
+            ++end;
+        }
+        if (end == 0 || end != equals && source.charAt(end) != '(') {
+            return null;
+        }
+        return source.substring(0, end);
+    }
+
+    /**
+     * Returns the names used right of {@code equals}, other than builtins and parameters.
+     */
+    private static Set<String> getDependencies(String source, int equals) {
+        final Set<String> dependencies = getNames(source.substring(equals + 1));
+        dependencies.removeAll(BUILTIN_NAMES);
+        final int open = source.indexOf('(');
+        if (open != -1 && open < equals) {
+            dependencies.removeAll(getNames(source.substring(open, equals)));
+        }
+        return dependencies;
+    }
+
+    /**
+     * Returns the names in the normalized {@code expr}, skipping the exponents of numbers the same
+     * way arity does, so that e.g. {@code 2e3} does not use {@code e}.
+     */
+    static Set<String> getNames(String expr) {
+        final Set<String> names = new HashSet<>();
+        final int length = expr.length();
+        int i = 0;
+        while (i < length) {
+            final char c = expr.charAt(i);
+            if (isNameChar(c, true /* isFirst */)) {
+                final int start = i;
+                while (i < length && isNameChar(expr.charAt(i), false /* isFirst */)) {
+                    ++i;
+                }
+                names.add(expr.substring(start, i));
+            } else if ((c >= '0' && c <= '9') || c == '.') {
+                ++i;
+                while (i < length && isNumberChar(expr, i)) {
+                    ++i;
+                }
+            } else {
+                ++i;
+            }
+        }
+        return names;
+    }
+
+    private static boolean isNameChar(char c, boolean isFirst) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_'
+                || (!isFirst && c >= '0' && c <= '9');
+    }
+
+    private static boolean isNumberChar(String expr, int i) {
+        final char c = expr.charAt(i);
+        if ((c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E') {
+            return true;
+        }
+        final char previous = expr.charAt(i - 1);
+        return c == '-' && (previous == 'e' || previous == 'E');
+    }
+
+    /**
+     * A register or user-defined function.
+     */
+    public static class Definition {
+
+        private final String mName;
+        private final String mSource;
+        private final Set<String> mDependencies;
+        private Function mFunction;
+        private double mValue = Double.NaN;
+        private SyntaxException mError;
+
+        /**
+         * The arity of the last successful compilation, kept when a recompilation fails.
+         */
+        private int mArity;
+
+        private Definition(String name, String source, Set<String> dependencies) {
+            mName = name;
+            mSource = source;
+            mDependencies = Collections.unmodifiableSet(dependencies);
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * Returns the normalized definition, e.g. {@code f(x)=x^2+1}.
+         */
+        public String getSource() {
+            return mSource;
+        }
+
+        /**
+         * Returns the names of the other definitions this definition uses.
+         */
+        public Set<String> getDependencies() {
+            return mDependencies;
+        }
+
+        /**
+         * Returns the compiled definition, or {@code null} if it does not compile.
+         */
+        public Function getFunction() {
+            return mFunction;
+        }
+
+        /**
+         * Returns {@code true} for a register, {@code false} for a function with parameters.
+         */
+        public boolean isRegister() {
+            return mArity == 0;
+        }
+
+        /**
+         * Returns the value of a register, NaN for functions and definitions that do not compile.
+         */
+        public double getValue() {
+            return mValue;
+        }
+
+        /**
+         * Returns the reason the definition no longer compiles, or {@code null} if it does.
+         */
+        public SyntaxException getError() {
+            return mError;
+        }
+    }
+}
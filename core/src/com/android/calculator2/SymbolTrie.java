@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+import java.util.Arrays;
+
+/**
+ * A trie of replacement symbols, used to rewrite an expression in a single left-to-right pass
+ * always preferring the longest symbol that matches at the current position.
+ */
+public class SymbolTrie {
+
+    private final Node mRoot = new Node();
+    private int mMaxKeyLength;
+
+    /**
+     * Adds a replacement for {@code key}; if {@code key} already has a replacement the
+     * existing one is kept.
+     */
+    public void put(String key, String value) {
+        Node node = mRoot;
+        for (int i = 0; i < key.length(); ++i) {
+            node = node.getOrAddChild(key.charAt(i));
+        }
+        if (node.value == null) {
+            node.value = value;
+            node.length = key.length();
+            mMaxKeyLength = Math.max(mMaxKeyLength, key.length());
+        }
+    }
+
+    /**
+     * Returns the length of the longest symbol, i.e. the furthest the trie may look ahead
+     * when deciding on the symbol at a given position.
+     */
+    public int getMaxKeyLength() {
+        return mMaxKeyLength;
+    }
+
+    /**
+     * Returns the node of the longest symbol starting at {@code index} in {@code src}, or
+     * {@code null} if no symbol matches.
+     */
+    private Node findLongestMatch(CharSequence src, int index) {
+        final int length = src.length();
+        Node node = mRoot;
+        Node match = null;
+        for (int i = index; i < length; ++i) {
+            node = node.getChild(src.charAt(i));
+            if (node == null) {
+                break;
+            }
+            if (node.value != null) {
+                match = node;
+            }
+        }
+        return match;
+    }
+
+    /**
+     * Returns {@code src} with every symbol replaced, or {@code src} itself if nothing
+     * matched. {@code buffer} is used as scratch space and is cleared before use.
+     */
+    public String translate(String src, StringBuilder buffer) {
+        final int length = src.length();
+        int copied = 0;
+        int index = 0;
+        while (index < length) {
+            final Node match = findLongestMatch(src, index);
+            if (match == null) {
+                ++index;
+                continue;
+            }
+
+            if (copied == 0) {
+                buffer.setLength(0);
+            }
+            buffer.append(src, copied, index).append(match.value);
+            index = copied = index + match.length;
+        }
+
+        if (copied == 0) {
+            return src;
+        }
+        return buffer.append(src, copied, length).toString();
+    }
+
+    /**
+     * Returns a new {@link IncrementalTranslator} backed by this trie.
+     */
+    public IncrementalTranslator newIncrementalTranslator() {
+        return new IncrementalTranslator(this);
+    }
+
+    /**
+     * Translates successive versions of the same expression. Only the part after the last symbol
+     * boundary that could be affected by an edit is translated again, so the cost of an edit is
+     * proportional to the text after it, e.g. appending a digit or deleting the last character
+     * costs the same whatever the length of the expression. Not thread-safe.
+     */
+    public static final class IncrementalTranslator {
+
+        private final SymbolTrie mTrie;
+        private final StringBuilder mOutput = new StringBuilder();
+
+        // Symbol boundaries of the last expression: the input offset at which each symbol starts
+        // and the corresponding offset into mOutput.
+        private int[] mInputMarks = new int[16];
+        private int[] mOutputMarks = new int[16];
+        private int mMarkCount;
+
+        // The NumberRecognizer state after each prefix of mOutput, up to and including the first
+        // rejecting one, so that whether a prefix is a number can be told after any edit.
+        private int[] mNumberStates = new int[16];
+        private int mNumberStateCount = 1;
+
+        private CharSequence mInput = "";
+        private String mTranslated = "";
+
+        private IncrementalTranslator(SymbolTrie trie) {
+            mTrie = trie;
+        }
+
+        /**
+         * Translates {@code expr}, finding the edit by comparing it with the previous expression.
+         * Callers that know where the text was edited should use
+         * {@link #translate(CharSequence, int)} instead.
+         */
+        public String translate(String expr) {
+            final int prefixLength = Math.min(expr.length(), mInput.length());
+            int commonLength = 0;
+            while (commonLength < prefixLength
+                    && expr.charAt(commonLength) == mInput.charAt(commonLength)) {
+                ++commonLength;
+            }
+            if (commonLength == expr.length() && commonLength == mInput.length()) {
+                mInput = expr;
+            } else {
+                translate(expr, commonLength);
+            }
+            if (mTranslated == null) {
+                mTranslated = mOutput.toString();
+            }
+            return mTranslated;
+        }
+
+        /**
+         * Translates {@code expr}, which is the same as the previous expression up to
+         * {@code editStart}, e.g. the offset of the last keystroke. Returns the translation
+         * buffer itself, which is only valid until the next call. {@code expr} must not be
+         * modified until then.
+         */
+        public CharSequence translate(CharSequence expr, int editStart) {
+            final int length = expr.length();
+            final int previousLength = mInput.length();
+            mInput = expr;
+            if (editStart >= length && length == previousLength) {
+                return mOutput;
+            }
+            // The string is only created if asked for.
+            mTranslated = null;
+
+            // A symbol starting at a boundary can look ahead up to the longest key, so only
+            // the boundaries far enough before the edit are known to be unchanged.
+            final int stableEnd = Math.min(editStart, Math.min(length, previousLength))
+                    - mTrie.getMaxKeyLength();
+            while (mMarkCount > 0 && mInputMarks[mMarkCount - 1] > stableEnd) {
+                --mMarkCount;
+            }
+
+            int index = 0;
+            if (mMarkCount > 0) {
+                // Resume at the start of the last stable symbol.
+                --mMarkCount;
+                index = mInputMarks[mMarkCount];
+                mOutput.setLength(mOutputMarks[mMarkCount]);
+            } else {
+                mOutput.setLength(0);
+            }
+            mNumberStateCount = Math.min(mNumberStateCount, mOutput.length() + 1);
+
+            while (index < length) {
+                addMark(index, mOutput.length());
+
+                final Node match = mTrie.findLongestMatch(expr, index);
+                if (match == null) {
+                    append(expr.charAt(index));
+                    ++index;
+                } else {
+                    for (int i = 0; i < match.value.length(); ++i) {
+                        append(match.value.charAt(i));
+                    }
+                    index += match.length;
+                }
+            }
+            return mOutput;
+        }
+
+        /**
+         * Returns {@code true} if the first {@code length} characters of the last translation
+         * are a single number, see {@link NumberRecognizer}.
+         */
+        public boolean isNumber(int length) {
+            return NumberRecognizer.isNumber(
+                    mNumberStates[Math.min(length, mNumberStateCount - 1)]);
+        }
+
+        private void append(char c) {
+            mOutput.append(c);
+            final int state = mNumberStates[mNumberStateCount - 1];
+            if (state != NumberRecognizer.REJECT) {
+                if (mNumberStateCount == mNumberStates.length) {
+                    mNumberStates = Arrays.copyOf(mNumberStates, mNumberStateCount * 2);
+                }
+                mNumberStates[mNumberStateCount++] = NumberRecognizer.next(state, c);
+            }
+        }
+
+        private void addMark(int inputOffset, int outputOffset) {
+            if (mMarkCount == mInputMarks.length) {
+                mInputMarks = Arrays.copyOf(mInputMarks, mMarkCount * 2);
+                mOutputMarks = Arrays.copyOf(mOutputMarks, mMarkCount * 2);
+            }
+            mInputMarks[mMarkCount] = inputOffset;
+            mOutputMarks[mMarkCount] = outputOffset;
+            ++mMarkCount;
+        }
+    }
+
+    private static final class Node {
+        private static final char[] NO_KEYS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        // Children are kept sorted by key so they can be binary searched.
+        private char[] mKeys = NO_KEYS;
+        private Node[] mChildren = NO_CHILDREN;
+
+        public String value;
+        public int length;
+
+        public Node getChild(char key) {
+            final int index = Arrays.binarySearch(mKeys, key);
+            return index < 0 ? null : mChildren[index];
+        }
+
+        public Node getOrAddChild(char key) {
+            int index = Arrays.binarySearch(mKeys, key);
+            if (index >= 0) {
+                return mChildren[index];
+            }
+
+            index = -(index + 1);
+            final int count = mKeys.length;
+            final char[] keys = new char[count + 1];
+            final Node[] children = new Node[count + 1];
+            System.arraycopy(mKeys, 0, keys, 0, index);
+            System.arraycopy(mChildren, 0, children, 0, index);
+            System.arraycopy(mKeys, index, keys, index + 1, count - index);
+            System.arraycopy(mChildren, index, children, index + 1, count - index);
+            keys[index] = key;
+            children[index] = new Node();
+
+            mKeys = keys;
+            mChildren = children;
+            return children[index];
+        }
+    }
+}
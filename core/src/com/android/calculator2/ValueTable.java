@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+import org.javia.arity.ContextFunction;
+import org.javia.arity.EvalContext;
+import org.javia.arity.Function;
+import org.javia.arity.SyntaxException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tabulates a localized expression in x over a range of x with a fixed step, e.g. for a table of
+ * values or a CSV export of millions of rows.
+ *
+ * <p>The expression is compiled once against a {@link SymbolTable}, so it may use the user's
+ * registers and functions. Rows are evaluated in chunks of {@link #CHUNK_SIZE} by a pool of
+ * workers, each chunk into primitive arrays that are reused once delivered. At most a few chunks
+ * per worker are in flight, so any number of rows is generated with bounded memory.
+ *
+ * <p>Use {@link #newFormatter} to show the values with the same rounding as the display. Nothing in
+ * the app shows a table or exports one yet, so it does not build this class.
+ */
+public class ValueTable {
+
+    /**
+     * The number of rows evaluated by a single task and delivered at once.
+     */
+    public static final int CHUNK_SIZE = 4096;
+
+    /**
+     * The number of chunks per worker that may be in flight before the oldest one is delivered.
+     */
+    private static final int CHUNKS_PER_THREAD = 2;
+
+    /**
+     * The fraction of a step by which the end of a range may be missed due to rounding and still
+     * get a row.
+     */
+    private static final double END_TOLERANCE = 1E-9;
+
+    private static final double[] NO_ARGUMENTS = new double[0];
+
+    private final ExpressionTokenizer mTokenizer;
+    private final SymbolTable mSymbolTable;
+    private final int mThreadCount;
+
+    public ValueTable(ExpressionTokenizer tokenizer, SymbolTable symbolTable) {
+        this(tokenizer, symbolTable, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ValueTable(ExpressionTokenizer tokenizer, SymbolTable symbolTable, int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount must be positive: " + threadCount);
+        }
+        mTokenizer = tokenizer;
+        mSymbolTable = symbolTable;
+        mThreadCount = threadCount;
+    }
+
+    /**
+     * Returns a formatter rounding values the same way as the display, not thread-safe.
+     */
+    public ResultFormatter newFormatter() {
+        return new ResultFormatter(mTokenizer.getSymbols(), ExpressionEvaluator.MAX_DIGITS,
+                ExpressionEvaluator.ROUNDING_DIGITS);
+    }
+
+    /**
+     * Returns the number of rows from {@code start} to {@code end} by {@code step}, including
+     * {@code end} if it is a whole number of steps from {@code start}, give or take rounding.
+     */
+    public static long getRowCount(double start, double end, double step) {
+        if (Double.isNaN(start) || Double.isInfinite(start) || Double.isNaN(end)
+                || Double.isInfinite(end) || !(step > 0) || Double.isInfinite(step)) {
+            throw new IllegalArgumentException("invalid range: " + start + " to " + end + " by "
+                    + step);
+        }
+        if (end < start) {
+            return 0;
+        }
+        final double steps = Math.floor((end - start) / step + END_TOLERANCE);
+        if (steps >= Long.MAX_VALUE) {
+            throw new IllegalArgumentException("too many rows: " + steps);
+        }
+        return (long) steps + 1;
+    }
+
+    /**
+     * Evaluates {@code expr} for x from {@code start} to {@code end} by {@code step}, calling
+     * {@code listener} once per chunk, in order, on the calling thread. Returns the number of
+     * rows generated.
+     *
+     * @throws SyntaxException if {@code expr} is invalid or uses an argument other than x
+     */
+    public long generate(String expr, double start, double end, double step,
+            ChunkListener listener) throws SyntaxException, InterruptedException {
+        final long rowCount = getRowCount(start, end, step);
+        final Function function = compile(expr);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(mThreadCount,
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        final Thread thread = new Thread(runnable,
+                                "ValueTable-" + mCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+        final Queue<Future<Chunk>> pending = new ArrayDeque<>();
+        final Queue<Chunk> free = new ArrayDeque<>();
+        final int maxPending = mThreadCount * CHUNKS_PER_THREAD;
+        try {
+            for (long row = 0; row < rowCount; row += CHUNK_SIZE) {
+                Chunk chunk = free.poll();
+                if (chunk == null) {
+                    chunk = new Chunk(function);
+                }
+                chunk.set(row, (int) Math.min(CHUNK_SIZE, rowCount - row), start, step);
+                pending.add(executor.submit(chunk));
+
+                if (pending.size() >= maxPending) {
+                    free.add(deliver(pending.remove(), listener));
+                }
+            }
+            while (!pending.isEmpty()) {
+                deliver(pending.remove(), listener);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return rowCount;
+    }
+
+    /**
+     * Writes the table of {@code expr} to {@code channel} as CSV, a header row followed by one
+     * row per x, with values rounded as on the display but not localized, e.g. {@code 0.3,-1E-7}.
+     * Undefined values are left empty. Returns the number of rows written, excluding the header.
+     *
+     * @throws SyntaxException if {@code expr} is invalid or uses an argument other than x
+     */
+    public long writeCsv(String expr, double start, double end, double step,
+            WritableByteChannel channel) throws SyntaxException, InterruptedException,
+            IOException {
+        final CsvWriter writer = new CsvWriter(channel, newFormatter());
+        writer.writeHeader(mTokenizer.getNormalizedExpression(expr));
+        final long rowCount;
+        try {
+            rowCount = generate(expr, start, end, step, writer);
+        } catch (CsvWriter.WriteException e) {
+            throw e.getCause();
+        }
+        writer.finish();
+        return rowCount;
+    }
+
+    private Function compile(String expr) throws SyntaxException {
+        final Function function = mSymbolTable.compile(mTokenizer.getNormalizedExpression(expr));
+        if (function.arity() > 1) {
+            throw new SyntaxException();
+        }
+        return function;
+    }
+
+    private static Chunk deliver(Future<Chunk> future, ChunkListener listener)
+            throws InterruptedException {
+        final Chunk chunk;
+        try {
+            chunk = future.get();
+        } catch (ExecutionException e) {
+            // Evaluation reports failures as NaN, anything else is a bug.
+            throw new RuntimeException(e.getCause());
+        }
+        listener.onChunk(chunk.mFirstRow, chunk.mXs, chunk.mYs, chunk.mSize);
+        return chunk;
+    }
+
+    /**
+     * A run of consecutive rows, with its own evaluation context and arrays.
+     */
+    private static final class Chunk implements Callable<Chunk> {
+
+        private final Function mFunction;
+        private final EvalContext mContext = new EvalContext();
+        final double[] mXs = new double[CHUNK_SIZE];
+        final double[] mYs = new double[CHUNK_SIZE];
+
+        long mFirstRow;
+        int mSize;
+        private double mStart;
+        private double mStep;
+
+        Chunk(Function function) {
+            mFunction = function;
+        }
+
+        void set(long firstRow, int size, double start, double step) {
+            mFirstRow = firstRow;
+            mSize = size;
+            mStart = start;
+            mStep = step;
+        }
+
+        @Override
+        public Chunk call() {
+            // Arity's ContextFunction#eval(double) serializes every caller on a shared context.
+            final ContextFunction contextFunction = mFunction instanceof ContextFunction
+                    ? (ContextFunction) mFunction : null;
+            final boolean isConstant = mFunction.arity() == 0;
+            for (int i = 0; i < mSize; ++i) {
+                // Multiplied rather than accumulated, so that rounding errors do not add up.
+                final double x = mStart + (mFirstRow + i) * mStep;
+                mXs[i] = x;
+                if (contextFunction != null) {
+                    mYs[i] = isConstant ? contextFunction.eval(NO_ARGUMENTS, mContext)
+                            : contextFunction.eval(x, mContext);
+                } else {
+                    mYs[i] = isConstant ? mFunction.eval() : mFunction.eval(x);
+                }
+            }
+            return this;
+        }
+    }
+
+    /**
+     * Writes rows as CSV through a character buffer, encoder and byte buffer that are reused for
+     * every row.
+     */
+    private static final class CsvWriter implements ChunkListener {
+
+        /**
+         * Ample room for a row of two formatted values.
+         */
+        private static final int MAX_ROW_LENGTH = 80;
+
+        private final WritableByteChannel mChannel;
+        private final ResultFormatter mFormatter;
+        private final CharsetEncoder mEncoder = StandardCharsets.UTF_8.newEncoder();
+        private final CharBuffer mChars = CharBuffer.allocate(16 * 1024);
+        private final ByteBuffer mBytes = ByteBuffer.allocateDirect(64 * 1024);
+
+        CsvWriter(WritableByteChannel channel, ResultFormatter formatter) {
+            mChannel = channel;
+            mFormatter = formatter;
+        }
+
+        void writeHeader(String expr) throws IOException {
+            encode(CharBuffer.wrap("x,\"" + expr.replace("\"", "\"\"") + "\"\n"),
+                    false /* endOfInput */);
+        }
+
+        @Override
+        public void onChunk(long firstRow, double[] xs, double[] ys, int size) {
+            try {
+                for (int i = 0; i < size; ++i) {
+                    if (mChars.remaining() < MAX_ROW_LENGTH) {
+                        encode(false /* endOfInput */);
+                    }
+                    mFormatter.formatNormalized(xs[i], mChars);
+                    mChars.put(',');
+                    if (!Double.isNaN(ys[i])) {
+                        mFormatter.formatNormalized(ys[i], mChars);
+                    }
+                    mChars.put('\n');
+                }
+            } catch (IOException e) {
+                throw new WriteException(e);
+            }
+        }
+
+        void finish() throws IOException {
+            encode(true /* endOfInput */);
+            while (mEncoder.flush(mBytes).isOverflow()) {
+                writeBytes();
+            }
+            writeBytes();
+        }
+
+        /**
+         * Encodes and writes out the buffered characters.
+         */
+        private void encode(boolean endOfInput) throws IOException {
+            mChars.flip();
+            encode(mChars, endOfInput);
+            mChars.compact();
+        }
+
+        private void encode(CharBuffer chars, boolean endOfInput) throws IOException {
+            while (true) {
+                final CoderResult result = mEncoder.encode(chars, mBytes, endOfInput);
+                if (result.isOverflow()) {
+                    writeBytes();
+                } else if (result.isUnderflow()) {
+                    return;
+                } else {
+                    result.throwException();
+                }
+            }
+        }
+
+        private void writeBytes() throws IOException {
+            mBytes.flip();
+            while (mBytes.hasRemaining()) {
+                mChannel.write(mBytes);
+            }
+            mBytes.clear();
+        }
+
+        /**
+         * Carries an {@link IOException} out of {@link #onChunk} to {@link #writeCsv}.
+         */
+        static final class WriteException extends RuntimeException {
+
+            private static final long serialVersionUID = 1L;
+
+            WriteException(IOException cause) {
+                super(cause);
+            }
+
+            @Override
+            public IOException getCause() {
+                return (IOException) super.getCause();
+            }
+        }
+    }
+
+    public interface ChunkListener {
+        /**
+         * @param firstRow the zero-based index of the first row of the chunk
+         * @param xs the x of each row, only valid until this method returns
+         * @param ys the value of each row, NaN where undefined, only valid until this method
+         *         returns
+         * @param size the number of rows in the chunk
+         */
+        public void onChunk(long firstRow, double[] xs, double[] ys, int size);
+    }
+}
@@ -0,0 +1,473 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.calculator2;
+
+import org.javia.arity.SyntaxException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A sheet of localized lines, each either an expression such as {@code 2×a} or a definition such
+ * as {@code a=3} or {@code f(x)=x+1}, with a cached result per line.
+ *
+ * <p>Edits only mark lines as changed, {@link #evaluate} then brings the results up to date. It
+ * applies changed definitions to a {@link SymbolTable}, which reports the names whose value
+ * changed, and evaluates only the changed lines and the lines using those names. Evaluation is
+ * spread over a pool of workers, each with its own {@link ExpressionEvaluator} and
+ * {@link SymbolTable}, and so its own arity {@code Symbols}. Workers replay the definition changes
+ * they have not seen yet before evaluating a line. Results are delivered as they complete.
+ *
+ * <p>Edits may be made from any thread, including while {@link #evaluate} is running; results
+ * for lines edited or removed meanwhile are dropped.
+ *
+ * <p>This is the engine only: the calculator has no worksheet screen yet, so the app leaves this
+ * class out of its build.
+ */
+public class Worksheet {
+
+    private final ExpressionSymbols mSymbols;
+    private final ExpressionTokenizer mTokenizer;
+    private final int mThreadCount;
+
+    /**
+     * The definitions of all lines, used to find the lines affected by a change.
+     */
+    private final SymbolTable mSymbolTable = new SymbolTable();
+
+    private final List<Line> mLines = new ArrayList<>();
+
+    /**
+     * The line defining each name in {@link #mSymbolTable}.
+     */
+    private final Map<String, Line> mOwners = new HashMap<>();
+
+    /**
+     * Names whose line was edited or removed since the last evaluation.
+     */
+    private final Set<String> mReleasedNames = new HashSet<>();
+
+    /**
+     * Every change made to {@link #mSymbolTable}, in order, for workers to replay.
+     */
+    private final List<Change> mChanges = new ArrayList<>();
+
+    /**
+     * Held for the duration of {@link #evaluate}, so that evaluations do not overlap.
+     */
+    private final Object mEvaluateLock = new Object();
+
+    private final ThreadLocal<Worker> mWorker = new ThreadLocal<Worker>() {
+        @Override
+        protected Worker initialValue() {
+            return new Worker();
+        }
+    };
+
+    private ExecutorService mExecutor;
+
+    public Worksheet(ExpressionSymbols symbols) {
+        this(symbols, Runtime.getRuntime().availableProcessors());
+    }
+
+    public Worksheet(ExpressionSymbols symbols, int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount must be positive: " + threadCount);
+        }
+        mSymbols = symbols;
+        mTokenizer = new ExpressionTokenizer(symbols);
+        mThreadCount = threadCount;
+    }
+
+    public synchronized int getLineCount() {
+        return mLines.size();
+    }
+
+    public synchronized Line getLine(int index) {
+        return mLines.get(index);
+    }
+
+    /**
+     * Returns the current position of {@code line}, or -1 if it was edited or removed.
+     */
+    public synchronized int indexOf(Line line) {
+        return line.mRemoved ? -1 : mLines.indexOf(line);
+    }
+
+    /**
+     * Replaces the text of the line at {@code index}, unless it is unchanged.
+     */
+    public synchronized void setLine(int index, String text) {
+        if (!mLines.get(index).mText.equals(text)) {
+            release(mLines.set(index, new Line(text, mTokenizer)));
+        }
+    }
+
+    public synchronized void insertLine(int index, String text) {
+        mLines.add(index, new Line(text, mTokenizer));
+    }
+
+    public synchronized void removeLine(int index) {
+        release(mLines.remove(index));
+    }
+
+    private void release(Line line) {
+        line.mRemoved = true;
+        if (line.mName != null && mOwners.get(line.mName) == line) {
+            mOwners.remove(line.mName);
+            mReleasedNames.add(line.mName);
+        }
+    }
+
+    /**
+     * Evaluates every line that changed, or uses a definition that changed, since the last
+     * evaluation, calling {@code listener} on the calling thread as each result becomes available.
+     * Returns the number of lines evaluated.
+     */
+    public int evaluate(ResultListener listener) throws InterruptedException {
+        synchronized (mEvaluateLock) {
+            final List<Task> tasks = new ArrayList<>();
+            final int changeCount;
+            synchronized (this) {
+                changeCount = prepare(tasks);
+            }
+
+            final CompletionService<Task> completionService =
+                    new ExecutorCompletionService<>(getExecutor());
+            int pendingCount = 0;
+            for (Task task : tasks) {
+                if (task.mExpr == null) {
+                    // Nothing to evaluate, e.g. a function definition.
+                    deliver(task, listener);
+                } else {
+                    task.mChangeCount = changeCount;
+                    completionService.submit(task);
+                    ++pendingCount;
+                }
+            }
+            for (; pendingCount > 0; --pendingCount) {
+                try {
+                    deliver(completionService.take().get(), listener);
+                } catch (ExecutionException e) {
+                    // Evaluation reports failures as errors, anything else is a bug.
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+            return tasks.size();
+        }
+    }
+
+    /**
+     * Stops the workers, any later {@link #evaluate} starts new ones.
+     */
+    public synchronized void shutdown() {
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+            mExecutor = null;
+        }
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (mExecutor == null) {
+            mExecutor = Executors.newFixedThreadPool(mThreadCount, new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable,
+                            "Worksheet-" + mCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return mExecutor;
+    }
+
+    /**
+     * Applies the changed definitions to {@link #mSymbolTable} and adds a task for every line to
+     * evaluate to {@code tasks}. Returns the number of changes workers must have replayed.
+     */
+    private int prepare(List<Task> tasks) {
+        final Set<String> changedNames = new HashSet<>();
+
+        // Define changed lines before removing released names, a released name is usually just
+        // redefined.
+        defineLines(changedNames);
+        if (!mReleasedNames.isEmpty()) {
+            for (String name : mReleasedNames) {
+                if (!mOwners.containsKey(name)) {
+                    changedNames.addAll(mSymbolTable.remove(name));
+                    changedNames.add(name);
+                    mChanges.add(new Change(name, null));
+                }
+            }
+            mReleasedNames.clear();
+            // Lines may now define a released name.
+            defineLines(changedNames);
+        }
+
+        for (Line line : mLines) {
+            if (line.mIsDirty || !Collections.disjoint(line.mNames, changedNames)) {
+                line.mIsDirty = true;
+                tasks.add(new Task(line, getExprToEvaluate(line)));
+            }
+        }
+        return mChanges.size();
+    }
+
+    /**
+     * Defines the changed definition lines and those using {@code changedNames}. Repeats while
+     * lines get defined, since a definition may precede the ones it uses.
+     */
+    private void defineLines(Set<String> changedNames) {
+        boolean isDefined = true;
+        while (isDefined) {
+            isDefined = false;
+            for (Line line : mLines) {
+                if (line.mName != null && !line.mIsDefined && (line.mIsDirty
+                        || !Collections.disjoint(line.mNames, changedNames))) {
+                    isDefined |= define(line, changedNames);
+                }
+            }
+        }
+    }
+
+    /**
+     * Defines {@code line} in {@link #mSymbolTable}, unless another line defines the same name,
+     * adding the names whose value changed to {@code changedNames}. Returns {@code true} if the
+     * line was defined.
+     */
+    private boolean define(Line line, Set<String> changedNames) {
+        if (mOwners.containsKey(line.mName)) {
+            return false;
+        }
+        try {
+            changedNames.addAll(mSymbolTable.define(line.mNormalizedText));
+        } catch (SyntaxException e) {
+            return false;
+        }
+        mOwners.put(line.mName, line);
+        mChanges.add(new Change(line.mName, line.mNormalizedText));
+        line.mIsDefined = true;
+        return true;
+    }
+
+    /**
+     * Returns the localized expression that gives the result of {@code line}, or {@code null} if
+     * it has none.
+     */
+    private String getExprToEvaluate(Line line) {
+        if (line.mName == null) {
+            return line.mText;
+        } else if (line.mIsDefined && mSymbolTable.get(line.mName).isRegister()) {
+            // Show the value of the register.
+            return line.mName;
+        }
+        return null;
+    }
+
+    private void deliver(Task task, ResultListener listener) {
+        final Line line = task.mLine;
+        final int index;
+        synchronized (this) {
+            if (line.mRemoved) {
+                return;
+            }
+            line.mResult = task.mResult;
+            line.mError = task.mError;
+            line.mIsDirty = false;
+            index = mLines.indexOf(line);
+        }
+        listener.onResult(index, line);
+    }
+
+    /**
+     * A line of the worksheet, replaced by a new instance whenever its text changes.
+     */
+    public static final class Line {
+
+        private final String mText;
+        private final String mNormalizedText;
+
+        /**
+         * The name this line defines, or {@code null} if it is not a definition.
+         */
+        private final String mName;
+
+        /**
+         * The names this line uses, including the one it defines.
+         */
+        private final Set<String> mNames;
+
+        // Guarded by the worksheet.
+        private boolean mIsDirty = true;
+        private boolean mIsDefined;
+        private boolean mRemoved;
+        private String mResult;
+        private EvaluationError mError;
+
+        private Line(String text, ExpressionTokenizer tokenizer) {
+            mText = text;
+            mNormalizedText = tokenizer.getNormalizedExpression(text);
+            mNames = SymbolTable.getNames(mNormalizedText);
+            final int equals = mNormalizedText.indexOf('=');
+            if (equals == -1) {
+                mName = null;
+            } else {
+                // Anything but a name with optional parameters fails to define.
+                final int open = mNormalizedText.indexOf('(');
+                mName = mNormalizedText.substring(0, open != -1 && open < equals ? open : equals);
+            }
+        }
+
+        public String getText() {
+            return mText;
+        }
+
+        /**
+         * Returns {@code true} if this line is a definition such as {@code a=3} or
+         * {@code f(x)=x+1}.
+         */
+        public boolean isDefinition() {
+            return mName != null;
+        }
+
+        /**
+         * Returns the localized result, or {@code null} if there is nothing to show, e.g. for a
+         * function definition or a line that has not been evaluated yet.
+         */
+        public String getResult() {
+            return mResult;
+        }
+
+        /**
+         * Returns the reason evaluation failed, or {@code null} if it did not.
+         */
+        public EvaluationError getError() {
+            return mError;
+        }
+    }
+
+    /**
+     * A definition or, if {@link #mSource} is {@code null}, the removal of a name.
+     */
+    private static final class Change {
+
+        final String mName;
+        final String mSource;
+
+        Change(String name, String source) {
+            mName = name;
+            mSource = source;
+        }
+    }
+
+    /**
+     * The evaluator and definitions of a worker thread.
+     */
+    private final class Worker {
+
+        final SymbolTable mSymbolTable = new SymbolTable();
+        final ExpressionEvaluator mEvaluator =
+                new ExpressionEvaluator(new ExpressionTokenizer(mSymbols), mSymbolTable);
+        int mChangeCount;
+
+        /**
+         * Replays the changes up to {@code changeCount} that this worker has not seen yet.
+         */
+        void update(int changeCount) {
+            if (mChangeCount == changeCount) {
+                return;
+            }
+            final List<Change> changes;
+            synchronized (Worksheet.this) {
+                changes = new ArrayList<>(mChanges.subList(mChangeCount, changeCount));
+            }
+            for (Change change : changes) {
+                if (change.mSource == null) {
+                    mSymbolTable.remove(change.mName);
+                } else {
+                    try {
+                        mSymbolTable.define(change.mSource);
+                    } catch (SyntaxException e) {
+                        // The same changes in the same order succeeded for the worksheet.
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }
+            mChangeCount = changeCount;
+        }
+    }
+
+    /**
+     * The evaluation of a single line.
+     */
+    private final class Task implements Callable<Task>, ExpressionEvaluator.Callback {
+
+        final Line mLine;
+        final String mExpr;
+        int mChangeCount;
+
+        String mResult;
+        EvaluationError mError;
+
+        Task(Line line, String expr) {
+            mLine = line;
+            mExpr = expr;
+            if (expr == null && line.mName != null && !line.mIsDefined) {
+                mError = EvaluationError.SYNTAX;
+            }
+        }
+
+        @Override
+        public Task call() {
+            final Worker worker = mWorker.get();
+            worker.update(mChangeCount);
+            worker.mEvaluator.evaluate(mExpr, EvaluationBudget.RESULT, this);
+            return this;
+        }
+
+        @Override
+        public void onEvaluate(String expr, String result, EvaluationError error) {
+            mResult = result;
+            mError = error;
+        }
+    }
+
+    public interface ResultListener {
+        /**
+         * @param index the position of {@code line} in the worksheet when its result was set
+         * @param line the line, with its new result
+         */
+        public void onResult(int index, Line line);
+    }
+}
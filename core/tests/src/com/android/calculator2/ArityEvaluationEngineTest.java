@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.javia.arity.ContextFunction;
+import org.javia.arity.Symbols;
+import org.javia.arity.SyntaxException;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class ArityEvaluationEngineTest {
+
+    private static final String EXPR = "sin(1)+2^0.5";
+
+    @Test
+    public void testMatchesArity() throws Exception {
+        final ArityEvaluationEngine engine = new ArityEvaluationEngine();
+        final Symbols symbols = new Symbols();
+        // Complex intermediate values, and an input arity cannot evaluate as a function.
+        final String[] exprs = {EXPR, "sqrt(-4)*sqrt(-1)", "ln(-1)", "1/0", "lg(0/0)^0"};
+        for (String expr : exprs) {
+            final double expected = symbols.eval(expr);
+            assertEquals(expr, expected, engine.evaluate(expr), 0.0);
+            // Again, from the value cache.
+            assertEquals(expr, expected, engine.evaluate(expr), 0.0);
+        }
+    }
+
+    @Test
+    public void testRejectsImplicitArguments() {
+        final ArityEvaluationEngine engine = new ArityEvaluationEngine();
+        for (String expr : new String[] {"x+1", "2*y", "sin(z)"}) {
+            try {
+                engine.evaluate(expr);
+                fail(expr);
+            } catch (SyntaxException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testDoesNotTakeSharedContextLock() throws Exception {
+        // Arity's Symbols compiles its builtins on the shared context once, when created.
+        final ArityEvaluationEngine engine = new ArityEvaluationEngine();
+        final Field field = ContextFunction.class.getDeclaredField("context");
+        field.setAccessible(true);
+        final Object sharedContext = field.get(null);
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            synchronized (sharedContext) {
+                final Future<Double> result = executor.submit(new Callable<Double>() {
+                    @Override
+                    public Double call() throws Exception {
+                        return engine.evaluate(EXPR);
+                    }
+                });
+                // Times out if compiling or evaluating waits for the lock held here.
+                assertEquals(Math.sin(1) + Math.sqrt(2), result.get(10, TimeUnit.SECONDS), 1e-15);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.javia.arity.Complex;
+import org.javia.arity.Function;
+import org.javia.arity.Symbols;
+import org.javia.arity.SyntaxException;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FunctionSamplerTest {
+
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 600;
+
+    /**
+     * The base step of the sampler, in pixels.
+     */
+    private static final double BASE_STEP_PIXELS = 8;
+
+    private final Symbols mSymbols = new Symbols();
+
+    @Test
+    public void testSamplesLineOnBaseGrid() throws SyntaxException {
+        final SampleBuffer samples = sample("2x+1", -10, 10, -25, 25);
+        assertCovers(samples, -10, 10);
+        assertEquals(WIDTH / BASE_STEP_PIXELS + 1, samples.size(), 0);
+        for (int i = 0; i < samples.size(); ++i) {
+            assertEquals(2 * samples.getX(i) + 1, samples.getY(i), 1E-12);
+        }
+    }
+
+    @Test
+    public void testSamplesConstant() throws SyntaxException {
+        final SampleBuffer samples = sample("3", -10, 10, -5, 5);
+        assertCovers(samples, -10, 10);
+        for (int i = 0; i < samples.size(); ++i) {
+            assertEquals(3, samples.getY(i), 0);
+        }
+    }
+
+    @Test
+    public void testRefinesWhereCurveBends() throws SyntaxException {
+        for (String expr : new String[] {"sin(x)", "sin(5x)/x", "exp(x)"}) {
+            final SampleBuffer samples = sample(expr, -10, 10, -1.5, 1.5);
+            assertCovers(samples, -10, 10);
+            assertTrue(expr, samples.size() > WIDTH / BASE_STEP_PIXELS + 1);
+            assertCloseToChords(mSymbols.compile(expr), samples, -1.5, 1.5);
+        }
+    }
+
+    @Test
+    public void testLocatesDomainEdges() throws SyntaxException {
+        final double xScale = WIDTH / 20.0;
+        // Neither edge is on the base grid.
+        final SampleBuffer samples = sample("sqrt(0.93-x^2)", -10, 10, -2, 2);
+        assertCovers(samples, -10, 10);
+        final double edge = Math.sqrt(0.93);
+        int first = -1;
+        int last = -1;
+        for (int i = 0; i < samples.size(); ++i) {
+            if (!Double.isNaN(samples.getY(i))) {
+                first = first == -1 ? i : first;
+                last = i;
+                assertTrue(Math.abs(samples.getX(i)) <= edge);
+            }
+        }
+        // The edges lie within twice the minimum step, a quarter pixel, of the nearest samples on
+        // either side.
+        assertEquals(-edge, samples.getX(first), 0.5 / xScale);
+        assertEquals(-edge, samples.getX(first - 1), 0.5 / xScale);
+        assertEquals(edge, samples.getX(last), 0.5 / xScale);
+        assertEquals(edge, samples.getX(last + 1), 0.5 / xScale);
+    }
+
+    @Test
+    public void testPanSamplesOnlyExposedRange() {
+        final CountingSine function = new CountingSine();
+        final FunctionSampler sampler = new FunctionSampler(function);
+        SampleBuffer samples = sampler.sample(-10, 10, -2, 2, WIDTH, HEIGHT);
+        final int fullCount = function.mCount.getAndSet(0);
+
+        // Pan right by a tenth of the view, then back left past the start.
+        samples = sampler.sample(-8, 12, -2, 2, WIDTH, HEIGHT);
+        assertCovers(samples, -8, 12);
+        assertTrue(function.mCount.getAndSet(0) < fullCount / 5);
+        assertCloseToChords(new CountingSine(), samples, -2, 2);
+        samples = sampler.sample(-11, 9, -2, 2, WIDTH, HEIGHT);
+        assertCovers(samples, -11, 9);
+        assertTrue(function.mCount.getAndSet(0) < fullCount / 5);
+        assertCloseToChords(new CountingSine(), samples, -2, 2);
+
+        // Panning by less than a base step samples nothing.
+        samples = sampler.sample(-10.9, 9.1, -2, 2, WIDTH, HEIGHT);
+        assertCovers(samples, -10.9, 9.1);
+        assertEquals(0, function.mCount.get());
+
+        // A full sampling gives the same samples.
+        final SampleBuffer fresh =
+                new FunctionSampler(new CountingSine()).sample(-11, 9, -2, 2, WIDTH, HEIGHT);
+        int j = 0;
+        for (int i = 0; i < samples.size(); ++i) {
+            if (samples.getX(i) >= fresh.getX(0) && samples.getX(i) <= fresh.getX(
+                    fresh.size() - 1)) {
+                while (fresh.getX(j) < samples.getX(i) - 1E-9) {
+                    ++j;
+                }
+                assertEquals(fresh.getX(j), samples.getX(i), 1E-9);
+            }
+        }
+    }
+
+    @Test
+    public void testZoomResamples() {
+        final CountingSine function = new CountingSine();
+        final FunctionSampler sampler = new FunctionSampler(function);
+        sampler.sample(-10, 10, -2, 2, WIDTH, HEIGHT);
+        final int fullCount = function.mCount.getAndSet(0);
+
+        // Zooming in by less than the maximum ratio keeps the samples in view.
+        sampler.sample(-8, 8, -2, 2, WIDTH, HEIGHT);
+        assertEquals(0, function.mCount.getAndSet(0));
+
+        // Zooming in further resamples everything, more densely.
+        final SampleBuffer samples = sampler.sample(-2, 2, -2, 2, WIDTH, HEIGHT);
+        assertTrue(function.mCount.get() > fullCount / 5);
+        assertCovers(samples, -2, 2);
+        assertCloseToChords(new CountingSine(), samples, -2, 2);
+    }
+
+    @Test
+    public void testRejectsTwoArguments() {
+        try {
+            FunctionSampler.compile(mSymbols, "x+y");
+            fail();
+        } catch (SyntaxException expected) {
+        }
+    }
+
+    private SampleBuffer sample(String expr, double xMin, double xMax, double yMin, double yMax)
+            throws SyntaxException {
+        return FunctionSampler.compile(mSymbols, expr).sample(xMin, xMax, yMin, yMax, WIDTH,
+                HEIGHT);
+    }
+
+    private static void assertCovers(SampleBuffer samples, double xMin, double xMax) {
+        assertTrue(samples.getX(0) <= xMin);
+        assertTrue(samples.getX(samples.size() - 1) >= xMax);
+        for (int i = 1; i < samples.size(); ++i) {
+            assertTrue(samples.getX(i) > samples.getX(i - 1));
+        }
+    }
+
+    /**
+     * Asserts that the function is within a pixel of the chord between each pair of samples in
+     * view, at their midpoint.
+     */
+    private static void assertCloseToChords(Function function, SampleBuffer samples,
+            double yMin, double yMax) {
+        final double yScale = HEIGHT / (yMax - yMin);
+        for (int i = 1; i < samples.size(); ++i) {
+            final double y0 = samples.getY(i - 1);
+            final double y1 = samples.getY(i);
+            if (Double.isNaN(y0) || Double.isNaN(y1) || Math.max(y0, y1) < yMin
+                    || Math.min(y0, y1) > yMax) {
+                continue;
+            }
+            final double x = (samples.getX(i - 1) + samples.getX(i)) / 2;
+            final double y = function.arity() == 0 ? function.eval() : function.eval(x);
+            assertEquals(function + " at " + x, (y0 + y1) / 2, y, 1 / yScale);
+        }
+    }
+
+    /**
+     * The sine function, counting its evaluations from any thread.
+     */
+    private static final class CountingSine extends Function {
+
+        final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public int arity() {
+            return 1;
+        }
+
+        @Override
+        public double eval(double x) {
+            mCount.incrementAndGet();
+            return Math.sin(x);
+        }
+
+        @Override
+        public Complex eval(Complex x) {
+            mCount.incrementAndGet();
+            return new Complex(x).sin();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.calculator2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class HistoryLogTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+    private static final int ENTRY_COUNT = 2000;
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void testReopen() throws IOException {
+        final File directory = mFolder.newFolder();
+        HistoryLog log = new HistoryLog(directory, SEGMENT_SIZE);
+        append(log, 0, ENTRY_COUNT);
+        log.close();
+
+        log = new HistoryLog(directory, SEGMENT_SIZE);
+        assertEntries(log, 0);
+        log.close();
+    }
+
+    @Test
+    public void testCompactDropsOldestEntries() throws IOException {
+        final File directory = mFolder.newFolder();
+        HistoryLog log = new HistoryLog(directory, SEGMENT_SIZE);
+        append(log, 0, ENTRY_COUNT);
+        log.compact(ENTRY_COUNT / 2);
+        assertEquals(1, log.getClosedSegmentCount());
+        assertEquals(ENTRY_COUNT / 2, log.size());
+        assertEntries(log, ENTRY_COUNT / 2);
+        log.close();
+
+        log = new HistoryLog(directory, SEGMENT_SIZE);
+        assertEntries(log, ENTRY_COUNT / 2);
+        log.close();
+    }
+
+    /**
+     * Reads the entries of the closed segments once compaction has replaced the files of the
+     * newest one, but before it swaps in the compacted segment, which it cannot do while the
+     * reader holds the log's lock.
+     */
+    @Test
+    public void testGetDuringCompaction() throws Throwable {
+        int checkedCount = 0;
+        for (int round = 0; round < 10; ++round) {
+            final File directory = mFolder.newFolder();
+            final HistoryLog log = new HistoryLog(directory, SEGMENT_SIZE);
+            append(log, 0, ENTRY_COUNT);
+            final long size = log.size();
+            final File newestClosedLog = getNewestClosedLog(directory);
+            final long newestClosedLength = newestClosedLog.length();
+
+            final AtomicBoolean isCompacted = new AtomicBoolean();
+            final AtomicBoolean isChecked = new AtomicBoolean();
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+            final Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (!hasTempFile(directory) && !isCompacted.get()) {
+                            // Wait for compaction to start writing.
+                        }
+                        synchronized (log) {
+                            if (log.size() != size) {
+                                // Too late, the compacted segment is already in use.
+                                return;
+                            }
+                            while (newestClosedLog.length() == newestClosedLength) {
+                                Thread.yield();
+                            }
+                            assertEntries(log, 0);
+                            isChecked.set(true);
+                        }
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            });
+            reader.start();
+            // Drops every closed entry, so compaction does not read the closed segments itself.
+            log.compact(0);
+            isCompacted.set(true);
+            reader.join();
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+            if (isChecked.get()) {
+                ++checkedCount;
+            }
+
+            assertEquals(1, log.getClosedSegmentCount());
+            assertEntries(log, (int) (size - log.size()));
+            log.close();
+        }
+        assertTrue("compaction always finished before the reader", checkedCount > 0);
+    }
+
+    private static File getNewestClosedLog(File directory) {
+        final String[] names = directory.list();
+        Arrays.sort(names);
+        int count = 0;
+        for (String name : names) {
+            if (name.endsWith(".log")) {
+                ++count;
+            }
+        }
+        return new File(directory, String.format(Locale.US, "%08d.log", count - 2));
+    }
+
+    private static boolean hasTempFile(File directory) {
+        for (String name : directory.list()) {
+            if (name.endsWith(".tmp")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void append(HistoryLog log, int from, int to) throws IOException {
+        for (int i = from; i < to; ++i) {
+            log.append(getExpression(i), getResult(i), i);
+        }
+    }
+
+    /**
+     * Checks that the log holds the entries appended from {@code from} onwards.
+     */
+    private static void assertEntries(HistoryLog log, int from) throws IOException {
+        final long size = log.size();
+        for (int i = 0; i < size; ++i) {
+            final HistoryLog.Entry entry = log.get(i);
+            assertEquals(getExpression(from + i), entry.expression);
+            assertEquals(getResult(from + i), entry.result);
+            assertEquals(from + i, entry.timestamp);
+        }
+    }
+
+    private static String getExpression(int i) {
+        return i + "×" + i;
+    }
+
+    private static String getResult(int i) {
+        return Long.toString((long) i * i);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class RationalEvaluationEngineTest {
+
+    /**
+     * 2^52 + 1, the odd integer just above 2^52, where doubles are spaced by 1.
+     */
+    private static final String ODD = "4503599627370497";
+
+    private final RationalEvaluationEngine mEngine = new RationalEvaluationEngine();
+
+    @Test
+    public void testHalfwayRoundsToEven() {
+        assertResult(4503599627370498.0, ODD + ".5");
+        assertResult(4503599627370498.0, "4503599627370498.5");
+        assertResult(-4503599627370498.0, "-" + ODD + ".5");
+    }
+
+    @Test
+    public void testNearlyHalfwayRoundsToNearest() {
+        // Within 20 significant digits of the halfway point, but not on it.
+        assertResult(4503599627370497.0, ODD + ".5-1/10000000000");
+        assertResult(4503599627370498.0, ODD + ".5+1/10000000000");
+    }
+
+    @Test
+    public void testSubnormals() {
+        assertResult(Double.MIN_VALUE, "4.9E-324");
+        assertResult(Double.MIN_VALUE, "2.4703282292062328E-324");
+        assertResult(0.0, "2.4703282292062327E-324");
+        assertResult(0.0, "1E-400");
+        assertResult(Double.parseDouble("1.2345678901234567E-310"), "1.2345678901234567E-310");
+    }
+
+    @Test
+    public void testOverflow() {
+        assertResult(Double.MAX_VALUE, "1.7976931348623158E308");
+        assertResult(Double.POSITIVE_INFINITY, "1.7976931348623159E308");
+        assertResult(Double.NEGATIVE_INFINITY, "-1E300*1E10");
+    }
+
+    @Test
+    public void testMatchesParseDouble() {
+        final String[] literals = {
+                "0.1", "0.3", "123456789.123456789", "9007199254740993", "1.0000000000000002",
+                "2.2250738585072011E-308", "2.2250738585072012E-308", "1.7976931348623157E308",
+        };
+        for (String literal : literals) {
+            assertResult(Double.parseDouble(literal), literal);
+        }
+    }
+
+    private void assertResult(double expected, String expr) {
+        assertEquals(expr, Double.doubleToLongBits(expected),
+                Double.doubleToLongBits(mEngine.evaluate(expr)));
+    }
+}
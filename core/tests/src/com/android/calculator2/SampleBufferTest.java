@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class SampleBufferTest {
+
+    private final SampleBuffer mBuffer = new SampleBuffer();
+
+    @Test
+    public void testAddsAtEitherEnd() {
+        mBuffer.addLast(1, 10);
+        mBuffer.addLast(2, 20);
+        mBuffer.addFirst(0, 0);
+        assertSamples(0, 3);
+
+        mBuffer.removeFirst();
+        mBuffer.removeLast();
+        assertSamples(1, 1);
+    }
+
+    @Test
+    public void testWrapsAround() {
+        // Slide a window of samples across the end of the backing arrays, as panning does.
+        for (int i = 0; i < 100; ++i) {
+            mBuffer.addLast(i, 10 * i);
+        }
+        for (int i = 100; i < 5000; ++i) {
+            mBuffer.removeFirst();
+            mBuffer.addLast(i, 10 * i);
+        }
+        assertSamples(4900, 100);
+        for (int i = 4899; i >= 4000; --i) {
+            mBuffer.removeLast();
+            mBuffer.addFirst(i, 10 * i);
+        }
+        assertSamples(4000, 100);
+    }
+
+    @Test
+    public void testGrowsAcrossWrap() {
+        for (int i = 0; i < 10; ++i) {
+            mBuffer.addLast(i, 10 * i);
+        }
+        // Adding before the first sample wraps to the end of the backing arrays.
+        for (int i = -1; i >= -3000; --i) {
+            mBuffer.addFirst(i, 10 * i);
+        }
+        assertSamples(-3000, 3010);
+    }
+
+    @Test
+    public void testClear() {
+        mBuffer.addFirst(0, 0);
+        mBuffer.clear();
+        assertEquals(0, mBuffer.size());
+        mBuffer.addLast(5, 50);
+        assertSamples(5, 1);
+    }
+
+    /**
+     * Asserts that the buffer holds the samples (i, 10i) for {@code size} consecutive i from
+     * {@code first}.
+     */
+    private void assertSamples(int first, int size) {
+        assertEquals(size, mBuffer.size());
+        for (int i = 0; i < size; ++i) {
+            assertEquals(first + i, mBuffer.getX(i), 0);
+            assertEquals(10 * (first + i), mBuffer.getY(i), 0);
+        }
+    }
+}
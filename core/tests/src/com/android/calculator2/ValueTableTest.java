@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.javia.arity.Function;
+import org.javia.arity.Symbols;
+import org.javia.arity.SyntaxException;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+public class ValueTableTest {
+
+    private static final int THREAD_COUNT = 4;
+
+    private final ExpressionTokenizer mTokenizer =
+            new ExpressionTokenizer(ExpressionSymbols.DEFAULT);
+    private final SymbolTable mSymbolTable = new SymbolTable();
+    private final ValueTable mTable = new ValueTable(mTokenizer, mSymbolTable, THREAD_COUNT);
+
+    @Test
+    public void testRowCountIncludesEnd() {
+        assertEquals(11, ValueTable.getRowCount(0, 10, 1));
+        assertEquals(10, ValueTable.getRowCount(0, 9.5, 1));
+        assertEquals(1, ValueTable.getRowCount(-2, -2, 0.5));
+        assertEquals(0, ValueTable.getRowCount(1, 0, 1));
+    }
+
+    @Test
+    public void testRowCountToleratesRounding() {
+        // 0.3 / 0.1 is just below 3.
+        assertEquals(4, ValueTable.getRowCount(0, 0.3, 0.1));
+        assertEquals(101, ValueTable.getRowCount(-1, 1, 0.02));
+        // A real shortfall is not rounding.
+        assertEquals(3, ValueTable.getRowCount(0, 0.3 - 1E-6, 0.1));
+    }
+
+    @Test
+    public void testRowCountRejectsInvalidRanges() {
+        final double[][] ranges = {
+                {0, 1, 0}, {0, 1, -1}, {0, 1, Double.NaN}, {0, 1, Double.POSITIVE_INFINITY},
+                {Double.NaN, 1, 1}, {0, Double.POSITIVE_INFINITY, 1},
+                {Double.NEGATIVE_INFINITY, 0, 1}, {0, 1E300, 1E-300},
+        };
+        for (double[] range : ranges) {
+            try {
+                ValueTable.getRowCount(range[0], range[1], range[2]);
+                fail(range[0] + " to " + range[1] + " by " + range[2]);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testDeliversChunksInOrder() throws Exception {
+        final double start = -3;
+        final double step = 0.125;
+        final long rowCount = 20L * ValueTable.CHUNK_SIZE + 7;
+        final Thread caller = Thread.currentThread();
+        final long[] nextRow = new long[1];
+        final long generated = mTable.generate("2x+1", start, start + (rowCount - 1) * step,
+                step, new ValueTable.ChunkListener() {
+                    @Override
+                    public void onChunk(long firstRow, double[] xs, double[] ys, int size) {
+                        assertSame(caller, Thread.currentThread());
+                        assertEquals(nextRow[0], firstRow);
+                        assertEquals(Math.min(ValueTable.CHUNK_SIZE, rowCount - firstRow), size);
+                        for (int i = 0; i < size; ++i) {
+                            final double x = start + (firstRow + i) * step;
+                            assertEquals(x, xs[i], 0);
+                            assertEquals(2 * x + 1, ys[i], 0);
+                        }
+                        nextRow[0] += size;
+                    }
+                });
+        assertEquals(rowCount, generated);
+        assertEquals(rowCount, nextRow[0]);
+    }
+
+    @Test
+    public void testUsesDefinitions() throws Exception {
+        mSymbolTable.define("a=3");
+        mSymbolTable.define("f(x)=x+a");
+        mTable.generate("f(a)×x", 0, 2, 1, new ValueTable.ChunkListener() {
+            @Override
+            public void onChunk(long firstRow, double[] xs, double[] ys, int size) {
+                assertEquals(3, size);
+                for (int i = 0; i < size; ++i) {
+                    assertEquals(6 * xs[i], ys[i], 0);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testRejectsOtherArguments() throws InterruptedException {
+        try {
+            mTable.generate("x+y", 0, 1, 1, new ValueTable.ChunkListener() {
+                @Override
+                public void onChunk(long firstRow, double[] xs, double[] ys, int size) {
+                    fail();
+                }
+            });
+            fail();
+        } catch (SyntaxException expected) {
+        }
+    }
+
+    @Test
+    public void testCsvMatchesDisplay() throws Exception {
+        // Values of every magnitude and sign, undefined values and infinity, over several chunks
+        // and many flushes of the character buffer.
+        assertCsvMatchesDisplay("x^3/7", -1000, 1000, 0.25);
+        assertCsvMatchesDisplay("1/x", -2, 2, 0.5);
+        assertCsvMatchesDisplay("sqrt(x)", -1, 1, 0.1);
+        assertCsvMatchesDisplay("10^x", -20, 20, 0.5);
+        assertCsvMatchesDisplay("π", 0, 1, 1);
+    }
+
+    /**
+     * Asserts that the CSV table of {@code expr} has the header and a row per x, with the values
+     * as {@link ResultFormatter#format} shows them, normalized.
+     */
+    private void assertCsvMatchesDisplay(String expr, double start, double end, double step)
+            throws SyntaxException, InterruptedException, IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final long rowCount = mTable.writeCsv(expr, start, end, step, Channels.newChannel(out));
+        assertEquals(ValueTable.getRowCount(start, end, step), rowCount);
+
+        final String normalized = mTokenizer.getNormalizedExpression(expr);
+        final Function function = new Symbols().compile(normalized);
+        final ResultFormatter formatter = mTable.newFormatter();
+        final StringBuilder expected = new StringBuilder("x,\"").append(normalized).append("\"\n");
+        for (long row = 0; row < rowCount; ++row) {
+            final double x = start + row * step;
+            final double y = function.arity() == 0 ? function.eval() : function.eval(x);
+            expected.append(mTokenizer.getNormalizedExpression(formatter.format(x))).append(',');
+            if (!Double.isNaN(y)) {
+                expected.append(mTokenizer.getNormalizedExpression(formatter.format(y)));
+            }
+            expected.append('\n');
+        }
+        assertEquals(expr, expected.toString(), new String(out.toByteArray(),
+                StandardCharsets.UTF_8));
+    }
+}
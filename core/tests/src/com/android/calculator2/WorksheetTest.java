@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class WorksheetTest {
+
+    private static final int THREAD_COUNT = 4;
+
+    private final Worksheet mWorksheet = new Worksheet(ExpressionSymbols.DEFAULT, THREAD_COUNT);
+
+    /**
+     * The lines delivered by the last evaluation, in delivery order.
+     */
+    private final List<Worksheet.Line> mDelivered = new ArrayList<>();
+
+    private final Worksheet.ResultListener mListener = new Worksheet.ResultListener() {
+        @Override
+        public void onResult(int index, Worksheet.Line line) {
+            assertEquals(mWorksheet.indexOf(line), index);
+            mDelivered.add(line);
+        }
+    };
+
+    @After
+    public void tearDown() {
+        mWorksheet.shutdown();
+    }
+
+    @Test
+    public void testEvaluatesEveryLine() throws InterruptedException {
+        setLines("a=3", "2×a", "f(x)=x+1", "f(a)", "a-10", "1/0");
+        assertEquals(6, evaluate());
+        assertResults("3", "6", null, "4", "−7", "∞");
+        assertEquals(0, evaluate());
+    }
+
+    @Test
+    public void testReevaluatesOnlyAffectedLines() throws InterruptedException {
+        setLines("a=3", "b=4", "2×a", "3×b", "a+b", "1+1");
+        evaluate();
+
+        mWorksheet.setLine(0, "a=5");
+        assertEquals(3, evaluate());
+        assertResults("5", "4", "10", "12", "9", "2");
+
+        mWorksheet.setLine(5, "1+2");
+        assertEquals(1, evaluate());
+        assertEquals("3", mWorksheet.getLine(5).getResult());
+
+        // Unchanged text is not an edit.
+        mWorksheet.setLine(1, "b=4");
+        assertEquals(0, evaluate());
+    }
+
+    @Test
+    public void testUsesDefinitionsOnLaterLines() throws InterruptedException {
+        setLines("2×b", "b=c+1", "c=4");
+        evaluate();
+        assertResults("10", "5", "4");
+
+        mWorksheet.setLine(2, "c=0");
+        assertEquals(3, evaluate());
+        assertResults("2", "1", "0");
+    }
+
+    @Test
+    public void testRedefinesFunctions() throws InterruptedException {
+        setLines("f(x)=x+1", "f(2)", "f(f(2))");
+        evaluate();
+        assertResults(null, "3", "4");
+
+        mWorksheet.setLine(0, "f(x)=10x");
+        assertEquals(3, evaluate());
+        assertResults(null, "20", "200");
+    }
+
+    @Test
+    public void testDuplicateDefinitionIsAnError() throws InterruptedException {
+        setLines("a=1", "a=2", "a");
+        evaluate();
+        assertResults("1", null, "1");
+        assertEquals(EvaluationError.SYNTAX, mWorksheet.getLine(1).getError());
+
+        // The duplicate takes over once the first definition is removed.
+        mWorksheet.removeLine(0);
+        evaluate();
+        assertResults("2", "2");
+        assertNull(mWorksheet.getLine(0).getError());
+    }
+
+    @Test
+    public void testRenameUndefinesOldName() throws InterruptedException {
+        setLines("a=2", "a+1");
+        evaluate();
+
+        mWorksheet.setLine(0, "b=2");
+        assertEquals(2, evaluate());
+        assertEquals("2", mWorksheet.getLine(0).getResult());
+        // Arity cannot forget a name, so a removed register is NaN rather than undefined.
+        assertEquals(EvaluationError.NAN, mWorksheet.getLine(1).getError());
+
+        mWorksheet.insertLine(0, "a=7");
+        evaluate();
+        assertResults("7", "2", "8");
+    }
+
+    @Test
+    public void testWorkersSeeEveryChange() throws InterruptedException {
+        final int lineCount = 500;
+        mWorksheet.insertLine(0, "a=0");
+        for (int i = 1; i <= lineCount; ++i) {
+            mWorksheet.insertLine(i, "a+" + i);
+        }
+        for (int value = 1; value <= 5; ++value) {
+            mWorksheet.setLine(0, "a=" + value * 1000);
+            assertEquals(lineCount + 1, evaluate());
+            for (int i = 1; i <= lineCount; ++i) {
+                assertEquals(Integer.toString(value * 1000 + i),
+                        mWorksheet.getLine(i).getResult());
+            }
+        }
+    }
+
+    @Test
+    public void testDropsResultsOfEditedLines() throws InterruptedException {
+        setLines("1+1", "2+2", "3+3", "4+4");
+        mWorksheet.evaluate(new Worksheet.ResultListener() {
+            @Override
+            public void onResult(int index, Worksheet.Line line) {
+                mDelivered.add(line);
+                // Replace the other lines before their results are delivered.
+                for (int i = 0; i < mWorksheet.getLineCount(); ++i) {
+                    if (i != index) {
+                        mWorksheet.setLine(i, "5+5");
+                    }
+                }
+            }
+        });
+        assertEquals(1, mDelivered.size());
+
+        mDelivered.clear();
+        assertEquals(3, evaluate());
+        for (Worksheet.Line line : mDelivered) {
+            assertEquals("10", line.getResult());
+        }
+    }
+
+    private void setLines(String... lines) {
+        for (int i = 0; i < lines.length; ++i) {
+            mWorksheet.insertLine(i, lines[i]);
+        }
+    }
+
+    private int evaluate() throws InterruptedException {
+        mDelivered.clear();
+        final int count = mWorksheet.evaluate(mListener);
+        assertEquals(count, mDelivered.size());
+        return count;
+    }
+
+    private void assertResults(String... results) {
+        assertEquals(results.length, mWorksheet.getLineCount());
+        for (int i = 0; i < results.length; ++i) {
+            assertEquals(mWorksheet.getLine(i).getText(), results[i],
+                    mWorksheet.getLine(i).getResult());
+        }
+    }
+}
@@ -27,17 +27,22 @@ import android.animation.ValueAnimator.AnimatorUpdateListener;
 import android.app.Activity;
 import android.graphics.Rect;
 import android.os.Bundle;
+import android.os.Looper;
+import android.os.MessageQueue.IdleHandler;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.support.annotation.NonNull;
-import android.support.v4.view.ViewPager;
 import android.text.Editable;
 import android.text.TextUtils;
 import android.text.TextWatcher;
+import android.util.Log;
 import android.view.KeyEvent;
 import android.view.View;
 import android.view.View.OnKeyListener;
 import android.view.View.OnLongClickListener;
 import android.view.ViewAnimationUtils;
 import android.view.ViewGroupOverlay;
+import android.view.ViewTreeObserver.OnPreDrawListener;
 import android.view.animation.AccelerateDecelerateInterpolator;
 import android.widget.Button;
 import android.widget.TextView;
@@ -45,9 +50,19 @@ import android.widget.TextView;
 import com.android.calculator2.CalculatorEditText.OnTextSizeChangeListener;
 import com.android.calculator2.CalculatorExpressionEvaluator.EvaluateCallback;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 public class Calculator extends Activity
         implements OnTextSizeChangeListener, EvaluateCallback, OnLongClickListener {
 
+    private static final String TAG = "Calculator";
+
+    /**
+     * Metrics are collected from startup if this tag is loggable at VERBOSE, e.g. after
+     * {@code adb shell setprop log.tag.CalculatorMetrics VERBOSE}.
+     */
+    private static final String METRICS_TAG = "CalculatorMetrics";
     private static final String NAME = Calculator.class.getName();
 
     // instance state keys
@@ -64,18 +79,23 @@ public class Calculator extends Activity
     }
 
     private final TextWatcher mFormulaTextWatcher = new TextWatcher() {
+        // The smallest offset changed since the last afterTextChanged.
+        private int mEditStart = Integer.MAX_VALUE;
+
         @Override
         public void beforeTextChanged(CharSequence charSequence, int start, int count, int after) {
         }
 
         @Override
         public void onTextChanged(CharSequence charSequence, int start, int count, int after) {
+            mEditStart = Math.min(mEditStart, start);
         }
 
         @Override
         public void afterTextChanged(Editable editable) {
             setState(CalculatorState.INPUT);
-            mEvaluator.evaluate(editable, Calculator.this);
+            mEvaluationScheduler.schedule(editable, mEditStart);
+            mEditStart = Integer.MAX_VALUE;
         }
     };
 
@@ -107,11 +127,13 @@ public class Calculator extends Activity
     private CalculatorState mCurrentState;
     private CalculatorExpressionTokenizer mTokenizer;
     private CalculatorExpressionEvaluator mEvaluator;
+    private EvaluationScheduler mEvaluationScheduler;
+    private CalculatorHistory mHistory;
 
     private View mDisplayView;
     private CalculatorEditText mFormulaEditText;
     private CalculatorEditText mResultEditText;
-    private ViewPager mPadViewPager;
+    private CalculatorPadViewPager mPadViewPager;
     private View mDeleteButton;
     private View mClearButton;
     private View mEqualButton;
@@ -120,13 +142,22 @@ public class Calculator extends Activity
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        final long startTime = SystemClock.uptimeMillis();
+        Trace.beginSection("Calculator.onCreate");
         super.onCreate(savedInstanceState);
+
+        if (Log.isLoggable(METRICS_TAG, Log.VERBOSE)) {
+            Metrics.setEnabled(true);
+        }
+
+        Trace.beginSection("setContentView");
         setContentView(R.layout.activity_calculator);
+        Trace.endSection();
 
         mDisplayView = findViewById(R.id.display);
         mFormulaEditText = (CalculatorEditText) findViewById(R.id.formula);
         mResultEditText = (CalculatorEditText) findViewById(R.id.result);
-        mPadViewPager = (ViewPager) findViewById(R.id.pad_pager);
+        mPadViewPager = (CalculatorPadViewPager) findViewById(R.id.pad_pager);
         mDeleteButton = findViewById(R.id.del);
         mClearButton = findViewById(R.id.clr);
 
@@ -135,21 +166,88 @@ public class Calculator extends Activity
             mEqualButton = findViewById(R.id.pad_operator).findViewById(R.id.eq);
         }
 
-        mTokenizer = new CalculatorExpressionTokenizer(this);
+        // The same symbols label the numeric pad and drive the tokenizer.
+        Trace.beginSection("getSymbols");
+        final ExpressionSymbols symbols = CalculatorSymbols.get(this);
+        Trace.endSection();
+        ((CalculatorNumericPadLayout) findViewById(R.id.pad_numeric)).setSymbols(symbols);
+
+        mTokenizer = new CalculatorExpressionTokenizer(symbols);
         mEvaluator = new CalculatorExpressionEvaluator(mTokenizer);
+        mEvaluationScheduler = new EvaluationScheduler(mEvaluator, this,
+                getResources().getInteger(R.integer.evaluation_coalescing_frames));
+        mHistory = new CalculatorHistory(this);
 
         savedInstanceState = savedInstanceState == null ? Bundle.EMPTY : savedInstanceState;
         setState(CalculatorState.values()[
                 savedInstanceState.getInt(KEY_CURRENT_STATE, CalculatorState.INPUT.ordinal())]);
         mFormulaEditText.setText(mTokenizer.getLocalizedExpression(
                 savedInstanceState.getString(KEY_CURRENT_EXPRESSION, "")));
-        mEvaluator.evaluate(mFormulaEditText.getText(), this);
 
         mFormulaEditText.setEditableFactory(mFormulaEditableFactory);
         mFormulaEditText.addTextChangedListener(mFormulaTextWatcher);
         mFormulaEditText.setOnKeyListener(mFormulaOnKeyListener);
         mFormulaEditText.setOnTextSizeChangeListener(this);
         mDeleteButton.setOnLongClickListener(this);
+
+        // Nothing below is needed to draw the first frame.
+        final long createTime = SystemClock.uptimeMillis();
+        runAfterFirstDraw(new Runnable() {
+            @Override
+            public void run() {
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, "startup: onCreate " + (createTime - startTime) + " ms, first draw "
+                            + (SystemClock.uptimeMillis() - startTime) + " ms");
+                }
+                if (isDestroyed()) {
+                    return;
+                }
+
+                // Evaluate the restored expression.
+                mEvaluationScheduler.evaluateNow(mFormulaEditText.getText());
+
+                if (mPadViewPager != null) {
+                    Looper.myQueue().addIdleHandler(new IdleHandler() {
+                        @Override
+                        public boolean queueIdle() {
+                            if (!isDestroyed()) {
+                                Trace.beginSection("inflateDeferredPages");
+                                mPadViewPager.inflateDeferredPages();
+                                Trace.endSection();
+                            }
+                            return false;
+                        }
+                    });
+                }
+            }
+        });
+
+        Trace.endSection();
+    }
+
+    /**
+     * Runs {@code runnable} on the main thread once the first frame has been drawn.
+     */
+    private void runAfterFirstDraw(final Runnable runnable) {
+        final View decorView = getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(new OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                // Posted, so that it runs once the frame about to be drawn is done.
+                decorView.post(runnable);
+                return true;
+            }
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        // Drop any pending evaluation, its result would be delivered to a destroyed activity.
+        mEvaluationScheduler.cancel();
+        mHistory.close();
     }
 
     @Override
@@ -167,6 +265,28 @@ public class Calculator extends Activity
                 mTokenizer.getNormalizedExpression(mFormulaEditText.getText().toString()));
     }
 
+    /**
+     * Also dumps the {@link Metrics}, e.g. for
+     * {@code adb shell dumpsys activity com.android.calculator2/.Calculator}. Passing
+     * {@code metrics enable}, {@code metrics disable} or {@code metrics reset} as arguments
+     * controls their collection first.
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+
+        if (args != null && args.length == 2 && "metrics".equals(args[0])) {
+            if ("enable".equals(args[1])) {
+                Metrics.setEnabled(true);
+            } else if ("disable".equals(args[1])) {
+                Metrics.setEnabled(false);
+            } else if ("reset".equals(args[1])) {
+                Metrics.reset();
+            }
+        }
+        Metrics.dump(prefix, writer);
+    }
+
     private void setState(CalculatorState state) {
         if (mCurrentState != state) {
             mCurrentState = state;
@@ -259,6 +379,7 @@ public class Calculator extends Activity
         } else if (errorResourceId != INVALID_RES_ID) {
             onError(errorResourceId);
         } else if (!TextUtils.isEmpty(result)) {
+            mHistory.record(expr, mTokenizer.getNormalizedExpression(result));
             onResult(result);
         } else if (mCurrentState == CalculatorState.EVALUATE) {
             // The current expression cannot be evaluated -> return to the input state.
@@ -297,7 +418,7 @@ public class Calculator extends Activity
     private void onEquals() {
         if (mCurrentState == CalculatorState.INPUT) {
             setState(CalculatorState.EVALUATE);
-            mEvaluator.evaluate(mFormulaEditText.getText(), this);
+            mEvaluationScheduler.evaluateNow(mFormulaEditText.getText(), EvaluationBudget.RESULT);
         }
     }
 
@@ -431,13 +552,18 @@ public class Calculator extends Activity
         animatorSet.setDuration(getResources().getInteger(android.R.integer.config_longAnimTime));
         animatorSet.setInterpolator(new AccelerateDecelerateInterpolator());
         animatorSet.addListener(new AnimatorListenerAdapter() {
+            private long mStartNanos;
+
             @Override
             public void onAnimationStart(Animator animation) {
+                mStartNanos = Metrics.start();
                 mResultEditText.setText(result);
             }
 
             @Override
             public void onAnimationEnd(Animator animation) {
+                Metrics.stop(Metrics.Stage.RESULT_ANIMATION, mStartNanos);
+
                 // Reset all of the values modified during the animation.
                 mResultEditText.setTextColor(resultTextColor);
                 mResultEditText.setScaleX(1.0f);
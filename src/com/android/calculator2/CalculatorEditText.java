@@ -21,6 +21,7 @@ import android.content.res.TypedArray;
 import android.graphics.Paint;
 import android.graphics.Paint.FontMetricsInt;
 import android.graphics.Rect;
+import android.graphics.Typeface;
 import android.os.Parcelable;
 import android.text.method.ScrollingMovementMethod;
 import android.text.TextPaint;
@@ -33,6 +34,9 @@ import android.view.MotionEvent;
 import android.widget.EditText;
 import android.widget.TextView;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public class CalculatorEditText extends EditText {
 
     private final static ActionMode.Callback NO_SELECTION_ACTION_MODE_CALLBACK =
@@ -58,6 +62,11 @@ public class CalculatorEditText extends EditText {
         }
     };
 
+    /**
+     * The maximum number of fitted text sizes to keep in {@link #mTextSizeCache}.
+     */
+    private static final int MAX_CACHED_TEXT_SIZES = 16;
+
     private final float mMaximumTextSize;
     private final float mMinimumTextSize;
     private final float mStepTextSize;
@@ -67,6 +76,19 @@ public class CalculatorEditText extends EditText {
     private final Rect mTempRect = new Rect();
 
     private int mWidthConstraint = -1;
+
+    /**
+     * Fitted text sizes keyed by text for the current width constraint and typeface, in least
+     * recently used order.
+     */
+    private final Map<String, Float> mTextSizeCache =
+            new LinkedHashMap<String, Float>(16, 0.75f, true /* accessOrder */) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Float> eldest) {
+                    return size() > MAX_CACHED_TEXT_SIZES;
+                }
+            };
+    private int mCachedWidthConstraint = -1;
     private OnTextSizeChangeListener mOnTextSizeChangeListener;
 
     public CalculatorEditText(Context context) {
@@ -138,6 +160,16 @@ public class CalculatorEditText extends EditText {
         setTextSize(TypedValue.COMPLEX_UNIT_PX, getVariableTextSize(text.toString()));
     }
 
+    @Override
+    public void setTypeface(Typeface tf) {
+        super.setTypeface(tf);
+
+        // Called from the TextView constructor, before the cache is created.
+        if (mTextSizeCache != null) {
+            mTextSizeCache.clear();
+        }
+    }
+
     @Override
     public void setTextSize(int unit, float size) {
         final float oldTextSize = getTextSize();
@@ -158,22 +190,61 @@ public class CalculatorEditText extends EditText {
             return getTextSize();
         }
 
+        final long start = Metrics.start();
+        if (mCachedWidthConstraint != mWidthConstraint) {
+            mCachedWidthConstraint = mWidthConstraint;
+            mTextSizeCache.clear();
+        }
+
+        Float textSize = mTextSizeCache.get(text);
+        if (textSize == null) {
+            textSize = fitTextSize(text);
+            mTextSizeCache.put(text, textSize);
+        }
+        Metrics.stop(Metrics.Stage.FIT_TEXT, start);
+        return textSize;
+    }
+
+    /**
+     * Returns the largest text size in the sequence {@link #mMinimumTextSize},
+     * {@code mMinimumTextSize + mStepTextSize}, ..., {@link #mMaximumTextSize} at which
+     * {@code text} fits within {@link #mWidthConstraint}, or the minimum text size if none fits.
+     */
+    private float fitTextSize(String text) {
         // Capture current paint state.
         mTempPaint.set(getPaint());
 
-        // Step through increasing text sizes until the text would no longer fit.
-        float lastFitTextSize = mMinimumTextSize;
-        while (lastFitTextSize < mMaximumTextSize) {
-            final float nextSize = Math.min(lastFitTextSize + mStepTextSize, mMaximumTextSize);
-            mTempPaint.setTextSize(nextSize);
-            if (mTempPaint.measureText(text) > mWidthConstraint) {
-                break;
-            } else {
-                lastFitTextSize = nextSize;
-            }
+        // Text width scales (nearly) linearly with the text size, so a single measurement at the
+        // maximum size predicts the fitting step.
+        final float maximumWidth = measureText(text, mMaximumTextSize);
+        if (maximumWidth <= mWidthConstraint) {
+            return mMaximumTextSize;
+        }
+
+        final float predictedSize = mMaximumTextSize * mWidthConstraint / maximumWidth;
+        final int stepCount =
+                (int) Math.ceil((mMaximumTextSize - mMinimumTextSize) / mStepTextSize);
+        int step = Math.max(0, Math.min(stepCount - 1,
+                (int) ((predictedSize - mMinimumTextSize) / mStepTextSize)));
+
+        // Correct for hinting and rounding, which make the scaling not quite linear.
+        while (step > 0 && measureText(text, getStepTextSize(step)) > mWidthConstraint) {
+            --step;
+        }
+        while (step + 1 < stepCount
+                && measureText(text, getStepTextSize(step + 1)) <= mWidthConstraint) {
+            ++step;
         }
+        return getStepTextSize(step);
+    }
+
+    private float getStepTextSize(int step) {
+        return Math.min(mMinimumTextSize + step * mStepTextSize, mMaximumTextSize);
+    }
 
-        return lastFitTextSize;
+    private float measureText(String text, float textSize) {
+        mTempPaint.setTextSize(textSize);
+        return mTempPaint.measureText(text);
     }
 
     @Override
@@ -16,66 +16,183 @@
 
 package com.android.calculator2;
 
-import org.javia.arity.Symbols;
-import org.javia.arity.SyntaxException;
-import org.javia.arity.Util;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class CalculatorExpressionEvaluator {
 
     /**
-     * The maximum number of significant digits to display.
+     * Single background worker shared by all evaluators for {@link #evaluateAsync}.
      */
-    private static final int MAX_DIGITS = 12;
+    private static final ExecutorService EVALUATION_EXECUTOR =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "CalculatorEvaluator");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final CalculatorExpressionTokenizer mTokenizer;
 
     /**
-     * A {@link Double} has at least 17 significant digits, we show the first {@link #MAX_DIGITS}
-     * and use the remaining digits as guard digits to hide floating point precision errors.
+     * Created on first use, usually on the evaluation thread, since setting up the engines is
+     * costly.
      */
-    private static final int ROUNDING_DIGITS = Math.max(17 - MAX_DIGITS, 0);
+    private ExpressionEvaluator mEvaluator;
 
-    private final Symbols mSymbols;
-    private final CalculatorExpressionTokenizer mTokenizer;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Incremented for every asynchronous request, only results for the latest generation are
+     * delivered.
+     */
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private Future<?> mPendingEvaluation;
+
+    /**
+     * The expression of the latest asynchronous request not yet taken by the background thread,
+     * and the smallest edit offset of the requests since the last one that was, so that edits of
+     * skipped requests are normalized again too.
+     */
+    private final Object mPendingLock = new Object();
+    private String mPendingExpr;
+    private int mPendingEditStart;
 
     public CalculatorExpressionEvaluator(CalculatorExpressionTokenizer tokenizer) {
-        mSymbols = new Symbols();
         mTokenizer = tokenizer;
     }
 
-    public void evaluate(CharSequence expr, EvaluateCallback callback) {
-        evaluate(expr.toString(), callback);
+    private synchronized ExpressionEvaluator getEvaluator() {
+        if (mEvaluator == null) {
+            mEvaluator = new ExpressionEvaluator(mTokenizer);
+        }
+        return mEvaluator;
+    }
+
+    /**
+     * Returns the number of evaluations that did not need to compile their expression.
+     */
+    public int getCacheHitCount() {
+        return getEvaluator().getCacheHitCount();
+    }
+
+    /**
+     * Returns the number of evaluations that had to compile their expression.
+     */
+    public int getCacheMissCount() {
+        return getEvaluator().getCacheMissCount();
     }
 
-    public void evaluate(String expr, EvaluateCallback callback) {
-        expr = mTokenizer.getNormalizedExpression(expr);
+    public void evaluate(CharSequence expr, EvaluateCallback callback) {
+        evaluate(expr.toString(), EvaluationBudget.RESULT, callback);
+    }
 
-        // remove any trailing operators
-        while (expr.length() > 0 && "+-/*".indexOf(expr.charAt(expr.length() - 1)) != -1) {
-            expr = expr.substring(0, expr.length() - 1);
+    /**
+     * Evaluates {@code expr} within {@code budget} on a background thread, posting the result to
+     * {@code callback} on the main thread. Any request still pending from a previous call is
+     * cancelled and its result is dropped, so only the result of the most recent request is ever
+     * delivered.
+     *
+     * @param editStart the offset from which {@code expr} may differ from the expression of the
+     *         previous call, 0 if unknown
+     */
+    public void evaluateAsync(CharSequence expr, int editStart, final EvaluationBudget budget,
+            final EvaluateCallback callback) {
+        final int generation = mGeneration.incrementAndGet();
+        synchronized (mPendingLock) {
+            mPendingExpr = expr.toString();
+            mPendingEditStart = Math.min(mPendingEditStart, editStart);
+        }
+        if (mPendingEvaluation != null) {
+            mPendingEvaluation.cancel(false /* mayInterruptIfRunning */);
         }
 
-        try {
-            if (expr.length() == 0 || Double.valueOf(expr) != null) {
-                callback.onEvaluate(expr, null, Calculator.INVALID_RES_ID);
-                return;
+        mPendingEvaluation = EVALUATION_EXECUTOR.submit(new Runnable() {
+            @Override
+            public void run() {
+                final String exprString;
+                final int exprEditStart;
+                synchronized (mPendingLock) {
+                    if (generation != mGeneration.get() || mPendingExpr == null) {
+                        // Superseded before it got a chance to run.
+                        return;
+                    }
+                    exprString = mPendingExpr;
+                    exprEditStart = mPendingEditStart;
+                    mPendingExpr = null;
+                    mPendingEditStart = Integer.MAX_VALUE;
+                }
+                getEvaluator().evaluate(exprString, exprEditStart, budget,
+                        new ExpressionEvaluator.Callback() {
+                            @Override
+                            public void onEvaluate(final String expr, final String result,
+                                    final EvaluationError error) {
+                                mMainHandler.post(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        if (generation == mGeneration.get()) {
+                                            callback.onEvaluate(expr, result,
+                                                    getErrorResourceId(error));
+                                        }
+                                    }
+                                });
+                            }
+                        });
             }
-        } catch (NumberFormatException e) {
-            // expr is not a simple number
+        });
+    }
+
+    /**
+     * Cancels any pending asynchronous evaluation, its result will not be delivered.
+     */
+    public void cancel() {
+        mGeneration.incrementAndGet();
+        if (mPendingEvaluation != null) {
+            mPendingEvaluation.cancel(false /* mayInterruptIfRunning */);
+            mPendingEvaluation = null;
         }
+    }
 
-        try {
-            double result = mSymbols.eval(expr);
-            if (Double.isNaN(result)) {
-                callback.onEvaluate(expr, null, R.string.error_nan);
-            } else {
-                // The arity library uses floating point arithmetic when evaluating the expression
-                // leading to precision errors in the result. The method doubleToString hides these
-                // errors; rounding the result by dropping N digits of precision.
-                final String resultString = mTokenizer.getLocalizedExpression(
-                        Util.doubleToString(result, MAX_DIGITS, ROUNDING_DIGITS));
-                callback.onEvaluate(expr, resultString, Calculator.INVALID_RES_ID);
+    public void evaluate(String expr, EvaluationBudget budget, final EvaluateCallback callback) {
+        synchronized (mPendingLock) {
+            // Pending edit offsets are relative to the expression evaluated last.
+            mPendingEditStart = 0;
+        }
+        getEvaluator().evaluate(expr, budget, new ExpressionEvaluator.Callback() {
+            @Override
+            public void onEvaluate(String expr, String result, EvaluationError error) {
+                callback.onEvaluate(expr, result, getErrorResourceId(error));
             }
-        } catch (SyntaxException e) {
-            callback.onEvaluate(expr, null, R.string.error_syntax);
+        });
+    }
+
+    private static int getErrorResourceId(EvaluationError error) {
+        if (error == null) {
+            return Calculator.INVALID_RES_ID;
+        }
+        switch (error) {
+            case NAN:
+                return R.string.error_nan;
+            case TOO_COMPLEX:
+                return R.string.error_too_complex;
+            case SYNTAX:
+            default:
+                return R.string.error_syntax;
         }
     }
 
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Records completed calculations in a {@link HistoryLog}. The log is opened, written and
+ * compacted on a background thread, so recording never blocks the caller.
+ */
+public class CalculatorHistory {
+
+    private static final String TAG = "CalculatorHistory";
+
+    /**
+     * The maximum number of entries to keep, older entries are dropped by compaction.
+     */
+    private static final long MAX_ENTRIES = 100000;
+
+    /**
+     * The number of closed segments after which the log is compacted.
+     */
+    private static final int MAX_CLOSED_SEGMENTS = 4;
+
+    private static final ExecutorService HISTORY_EXECUTOR =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final File mDirectory;
+
+    /**
+     * Only accessed from {@link #HISTORY_EXECUTOR}.
+     */
+    private HistoryLog mLog;
+
+    public CalculatorHistory(Context context) {
+        mDirectory = new File(context.getFilesDir(), "history");
+    }
+
+    /**
+     * Records the normalized {@code expression} and its normalized {@code result}.
+     */
+    public void record(final String expression, final String result) {
+        final long timestamp = System.currentTimeMillis();
+        HISTORY_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (mLog == null) {
+                        mLog = new HistoryLog(mDirectory);
+                    }
+                    mLog.append(expression, result, timestamp);
+                    if (mLog.getClosedSegmentCount() > MAX_CLOSED_SEGMENTS) {
+                        mLog.compact(MAX_ENTRIES);
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to record history", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Closes the log once all pending records are written.
+     */
+    public void close() {
+        HISTORY_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mLog != null) {
+                    try {
+                        mLog.close();
+                    } catch (IOException e) {
+                        Log.w(TAG, "Failed to close history", e);
+                    }
+                    mLog = null;
+                }
+            }
+        });
+    }
+}
@@ -20,10 +20,6 @@ import android.content.Context;
 import android.util.AttributeSet;
 import android.widget.Button;
 import android.view.View;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
-import java.text.NumberFormat;
-import java.util.Locale;
 
 public class CalculatorNumericPadLayout extends CalculatorPadLayout {
 
@@ -39,57 +35,47 @@ public class CalculatorNumericPadLayout extends CalculatorPadLayout {
         super(context, attrs, defStyle);
     }
 
-    @Override
-    public void onFinishInflate() {
-        super.onFinishInflate();
-
-        Locale locale = getResources().getConfiguration().locale;
-        if (!getResources().getBoolean(R.bool.use_localized_digits)) {
-            locale = new Locale.Builder()
-                .setLocale(locale)
-                .setUnicodeLocaleKeyword("nu", "latn")
-                .build();
-        }
-
-        final DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
-        final char zeroDigit = symbols.getZeroDigit();
+    /**
+     * Labels the digit and decimal point buttons with the localized glyphs of {@code symbols}.
+     */
+    public void setSymbols(ExpressionSymbols symbols) {
         for (int childIndex = getChildCount() - 1; childIndex >= 0; --childIndex) {
             final View v = getChildAt(childIndex);
             if (v instanceof Button) {
                 final Button b = (Button) v;
                 switch (b.getId()) {
                     case R.id.digit_0:
-                        b.setText(String.valueOf(zeroDigit));
+                        b.setText(symbols.getDigitString(0));
                         break;
                     case R.id.digit_1:
-                        b.setText(String.valueOf((char) (zeroDigit + 1)));
+                        b.setText(symbols.getDigitString(1));
                         break;
                     case R.id.digit_2:
-                        b.setText(String.valueOf((char) (zeroDigit + 2)));
+                        b.setText(symbols.getDigitString(2));
                         break;
                     case R.id.digit_3:
-                        b.setText(String.valueOf((char) (zeroDigit + 3)));
+                        b.setText(symbols.getDigitString(3));
                         break;
                     case R.id.digit_4:
-                        b.setText(String.valueOf((char) (zeroDigit + 4)));
+                        b.setText(symbols.getDigitString(4));
                         break;
                     case R.id.digit_5:
-                        b.setText(String.valueOf((char) (zeroDigit + 5)));
+                        b.setText(symbols.getDigitString(5));
                         break;
                     case R.id.digit_6:
-                        b.setText(String.valueOf((char) (zeroDigit + 6)));
+                        b.setText(symbols.getDigitString(6));
                         break;
                     case R.id.digit_7:
-                        b.setText(String.valueOf((char) (zeroDigit + 7)));
+                        b.setText(symbols.getDigitString(7));
                         break;
                     case R.id.digit_8:
-                        b.setText(String.valueOf((char) (zeroDigit + 8)));
+                        b.setText(symbols.getDigitString(8));
                         break;
                     case R.id.digit_9:
-                        b.setText(String.valueOf((char) (zeroDigit + 9)));
+                        b.setText(symbols.getDigitString(9));
                         break;
                     case R.id.dec_point:
-                        b.setText(String.valueOf(symbols.getDecimalSeparator()));
+                        b.setText(symbols.getDecimalSeparatorString());
                         break;
                 }
             }
@@ -22,6 +22,7 @@ import android.support.v4.view.ViewPager;
 import android.util.AttributeSet;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewStub;
 
 public class CalculatorPadViewPager extends ViewPager {
 
@@ -38,7 +39,14 @@ public class CalculatorPadViewPager extends ViewPager {
 
         @Override
         public void destroyItem(ViewGroup container, int position, Object object) {
-            removeViewAt(position);
+            removeView((View) object);
+        }
+
+        @Override
+        public int getItemPosition(Object object) {
+            // A deferred page is replaced by its inflated view.
+            final int index = indexOfChild((View) object);
+            return index >= 0 ? index : POSITION_NONE;
         }
 
         @Override
@@ -53,28 +61,35 @@ public class CalculatorPadViewPager extends ViewPager {
     };
 
     private final OnPageChangeListener mOnPageChangeListener = new SimpleOnPageChangeListener() {
-        private void recursivelySetEnabled(View view, boolean enabled) {
-            if (view instanceof ViewGroup) {
-                final ViewGroup viewGroup = (ViewGroup) view;
-                for (int childIndex = 0; childIndex < viewGroup.getChildCount(); ++childIndex) {
-                    recursivelySetEnabled(viewGroup.getChildAt(childIndex), enabled);
-                }
-            } else {
-                view.setEnabled(enabled);
+        @Override
+        public void onPageScrollStateChanged(int state) {
+            if (state == SCROLL_STATE_DRAGGING) {
+                postInflateDeferredPages();
             }
         }
 
         @Override
         public void onPageSelected(int position) {
+            // e.g. restoring the selected page.
+            postInflateDeferredPages();
+
             if (getAdapter() == mStaticPagerAdapter) {
-                for (int childIndex = 0; childIndex < getChildCount(); ++childIndex) {
-                    // Only enable subviews of the current page.
-                    recursivelySetEnabled(getChildAt(childIndex), childIndex == position);
-                }
+                setPageEnabled(position);
             }
         }
     };
 
+    /**
+     * Inflates deferred pages outside of the pager's own callbacks, which may run while it lays
+     * out or scrolls its pages.
+     */
+    private final Runnable mInflateDeferredPagesRunnable = new Runnable() {
+        @Override
+        public void run() {
+            inflateDeferredPages();
+        }
+    };
+
     private final PageTransformer mPageTransformer = new PageTransformer() {
         @Override
         public void transformPage(View view, float position) {
@@ -113,4 +128,49 @@ public class CalculatorPadViewPager extends ViewPager {
             mStaticPagerAdapter.notifyDataSetChanged();
         }
     }
+
+    /**
+     * Inflates any page deferred by a {@link ViewStub}.
+     */
+    public void inflateDeferredPages() {
+        boolean inflated = false;
+        for (int childIndex = 0; childIndex < getChildCount(); ++childIndex) {
+            final View child = getChildAt(childIndex);
+            if (child instanceof ViewStub) {
+                ((ViewStub) child).inflate();
+                inflated = true;
+            }
+        }
+
+        if (inflated && getAdapter() == mStaticPagerAdapter) {
+            mStaticPagerAdapter.notifyDataSetChanged();
+            // Inflated pages start out enabled.
+            setPageEnabled(getCurrentItem());
+        }
+    }
+
+    private void postInflateDeferredPages() {
+        removeCallbacks(mInflateDeferredPagesRunnable);
+        post(mInflateDeferredPagesRunnable);
+    }
+
+    /**
+     * Enables the subviews of the page at {@code position} only.
+     */
+    private void setPageEnabled(int position) {
+        for (int childIndex = 0; childIndex < getChildCount(); ++childIndex) {
+            recursivelySetEnabled(getChildAt(childIndex), childIndex == position);
+        }
+    }
+
+    private static void recursivelySetEnabled(View view, boolean enabled) {
+        if (view instanceof ViewGroup) {
+            final ViewGroup viewGroup = (ViewGroup) view;
+            for (int childIndex = 0; childIndex < viewGroup.getChildCount(); ++childIndex) {
+                recursivelySetEnabled(viewGroup.getChildAt(childIndex), enabled);
+            }
+        } else {
+            view.setEnabled(enabled);
+        }
+    }
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+import android.content.Context;
+
+import java.text.DecimalFormatSymbols;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Provides the {@link ExpressionSymbols} shared by the tokenizer, the numeric pad and the result
+ * formatter. Symbols are cached for the lifetime of the process, keyed by locale and digit style,
+ * so that activity recreation and switching back to a previous locale are a map lookup.
+ */
+public final class CalculatorSymbols {
+
+    private static final Map<Locale, ExpressionSymbols> sCache =
+            new HashMap<Locale, ExpressionSymbols>();
+
+    /**
+     * Returns the symbols for the current configuration of {@code context}: its locale's digits
+     * (latin unless {@code R.bool.use_localized_digits}) and decimal separator, and the operator
+     * and function glyphs from its resources.
+     */
+    public static ExpressionSymbols get(Context context) {
+        final Locale configLocale = context.getResources().getConfiguration().locale;
+        final boolean localizedDigits =
+                context.getResources().getBoolean(R.bool.use_localized_digits);
+
+        // The digit style is part of the key as the "nu" keyword of the locale.
+        Locale locale = configLocale;
+        if (!localizedDigits) {
+            locale = new Locale.Builder()
+                .setLocale(configLocale)
+                .setUnicodeLocaleKeyword("nu", "latn")
+                .build();
+        }
+
+        synchronized (sCache) {
+            ExpressionSymbols symbols = sCache.get(locale);
+            if (symbols == null) {
+                symbols = create(context, locale);
+                sCache.put(locale, symbols);
+            }
+            return symbols;
+        }
+    }
+
+    private static ExpressionSymbols create(Context context, Locale locale) {
+        final DecimalFormatSymbols symbols = new DecimalFormatSymbols(locale);
+        return new ExpressionSymbols.Builder()
+                .setZeroDigit(symbols.getZeroDigit())
+                .setDecimalSeparator(symbols.getDecimalSeparator())
+                .addSymbol("/", context.getString(R.string.op_div))
+                .addSymbol("*", context.getString(R.string.op_mul))
+                .addSymbol("-", context.getString(R.string.op_sub))
+                .addSymbol("cos", context.getString(R.string.fun_cos))
+                .addSymbol("ln", context.getString(R.string.fun_ln))
+                .addSymbol("log", context.getString(R.string.fun_log))
+                .addSymbol("sin", context.getString(R.string.fun_sin))
+                .addSymbol("tan", context.getString(R.string.fun_tan))
+                .addSymbol("Infinity", context.getString(R.string.inf))
+                .build();
+    }
+
+    private CalculatorSymbols() {
+    }
+}
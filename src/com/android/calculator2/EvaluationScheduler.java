@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+import android.view.Choreographer;
+
+import com.android.calculator2.CalculatorExpressionEvaluator.EvaluateCallback;
+
+/**
+ * Coalesces evaluation requests that arrive in quick succession, e.g. while typing, pasting or
+ * holding a key, so that at most one evaluation is started per coalescing window of frames. Must
+ * be used from the main thread.
+ */
+public class EvaluationScheduler implements Choreographer.FrameCallback {
+
+    private final CalculatorExpressionEvaluator mEvaluator;
+    private final EvaluateCallback mCallback;
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+
+    private int mCoalescingFrameCount;
+
+    /**
+     * The expression to evaluate once the current window ends, read at that time so that later
+     * edits to a mutable expression are included. {@code null} if nothing is scheduled.
+     */
+    private CharSequence mPendingExpr;
+    private int mRemainingFrameCount;
+
+    /**
+     * The smallest offset edited since the last evaluation started, 0 before the first one.
+     */
+    private int mEditStart;
+
+    /**
+     * @param coalescingFrameCount the number of frames to wait for further requests before
+     *         evaluating, 0 to evaluate every request immediately
+     */
+    public EvaluationScheduler(CalculatorExpressionEvaluator evaluator, EvaluateCallback callback,
+            int coalescingFrameCount) {
+        mEvaluator = evaluator;
+        mCallback = callback;
+        setCoalescingFrameCount(coalescingFrameCount);
+    }
+
+    public void setCoalescingFrameCount(int coalescingFrameCount) {
+        if (coalescingFrameCount < 0) {
+            throw new IllegalArgumentException(
+                    "coalescingFrameCount must not be negative: " + coalescingFrameCount);
+        }
+        mCoalescingFrameCount = coalescingFrameCount;
+    }
+
+    /**
+     * Schedules {@code expr} to be evaluated within the preview budget at the end of the current
+     * window, replacing any expression already scheduled.
+     *
+     * @param editStart the offset from which {@code expr} was edited since the previous request
+     */
+    public void schedule(CharSequence expr, int editStart) {
+        mEditStart = Math.min(mEditStart, editStart);
+        if (mCoalescingFrameCount == 0) {
+            evaluateNow(expr);
+            return;
+        }
+
+        if (mPendingExpr == null) {
+            mRemainingFrameCount = mCoalescingFrameCount;
+            mChoreographer.postFrameCallback(this);
+        }
+        mPendingExpr = expr;
+    }
+
+    /**
+     * Evaluates {@code expr} within the preview budget right away, dropping any scheduled
+     * expression.
+     */
+    public void evaluateNow(CharSequence expr) {
+        evaluateNow(expr, EvaluationBudget.PREVIEW);
+    }
+
+    /**
+     * Evaluates {@code expr} within {@code budget} right away, dropping any scheduled expression.
+     */
+    public void evaluateNow(CharSequence expr, EvaluationBudget budget) {
+        removePending();
+        evaluateAsync(expr, budget);
+    }
+
+    /**
+     * Drops any scheduled expression and cancels any evaluation in progress.
+     */
+    public void cancel() {
+        removePending();
+        mEvaluator.cancel();
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (mPendingExpr == null) {
+            return;
+        }
+
+        if (--mRemainingFrameCount > 0) {
+            mChoreographer.postFrameCallback(this);
+            return;
+        }
+
+        final CharSequence expr = mPendingExpr;
+        mPendingExpr = null;
+        evaluateAsync(expr, EvaluationBudget.PREVIEW);
+    }
+
+    private void evaluateAsync(CharSequence expr, EvaluationBudget budget) {
+        mEvaluator.evaluateAsync(expr, mEditStart, budget, mCallback);
+        mEditStart = Integer.MAX_VALUE;
+    }
+
+    private void removePending() {
+        if (mPendingExpr != null) {
+            mPendingExpr = null;
+            mChoreographer.removeFrameCallback(this);
+        }
+    }
+}
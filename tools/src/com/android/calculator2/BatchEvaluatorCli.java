@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Evaluates every line of a file with {@link BatchEvaluator}, writing one tab-separated line per
+ * expression to standard output: the expression followed by its result, which is empty if the
+ * calculator would not show one, or its error.
+ *
+ * <pre>
+ * usage: BatchEvaluatorCli [--threads N] FILE
+ * </pre>
+ */
+public final class BatchEvaluatorCli {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        String path = null;
+        for (int i = 0; i < args.length; ++i) {
+            if (args[i].equals("--threads") && i + 1 < args.length) {
+                threadCount = Integer.parseInt(args[++i]);
+            } else if (path == null && !args[i].startsWith("--")) {
+                path = args[i];
+            } else {
+                path = null;
+                break;
+            }
+        }
+        if (path == null) {
+            System.err.println("usage: BatchEvaluatorCli [--threads N] FILE");
+            System.exit(2);
+        }
+
+        final Writer out = new BufferedWriter(
+                new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 64 * 1024);
+        final long startTime = System.nanoTime();
+        final long count;
+        try (MappedLineReader reader = new MappedLineReader(path)) {
+            count = new BatchEvaluator(ExpressionSymbols.DEFAULT, threadCount).evaluate(reader,
+                    new BatchEvaluator.ResultListener() {
+                        @Override
+                        public void onResult(long index, String expr, String result,
+                                EvaluationError error) {
+                            try {
+                                out.write(expr);
+                                out.write('\t');
+                                if (error != null) {
+                                    out.write("error: ");
+                                    out.write(error.name().toLowerCase(Locale.US));
+                                } else if (result != null) {
+                                    out.write(result);
+                                }
+                                out.write('\n');
+                            } catch (IOException e) {
+                                throw new RuntimeException(e);
+                            }
+                        }
+                    });
+        }
+        out.flush();
+
+        final long elapsedMillis = (System.nanoTime() - startTime) / 1000000L;
+        System.err.println(count + " expressions in " + elapsedMillis + " ms");
+    }
+
+    private BatchEvaluatorCli() {
+    }
+}
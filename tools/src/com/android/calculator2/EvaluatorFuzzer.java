@@ -0,0 +1,395 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.calculator2;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Types random and grammar guided key sequences through {@link ExpressionEditor} into
+ * {@link ExpressionEvaluator}, as the calculator does, and checks every result against
+ * {@link ReferenceEvaluator}. Also checks that a fresh evaluator agrees with the one that saw
+ * every keystroke, and times each evaluation to find latency outliers.
+ *
+ * <p>A result is imprecise if it differs from the reference by more than one unit in its last
+ * displayed digit plus {@link #ERROR_BOUND_FACTOR} times the reference's bound on the error of
+ * double arithmetic, which allows for ill-conditioned expressions such as sin(1E20). Syntax and
+ * domain disagreements (e.g. a finite result where the reference has none) are reported but do
+ * not fail the run.
+ *
+ * <p>Exits with status 1 if any result is imprecise, a property does not hold, an evaluation
+ * throws, or an evaluation takes longer than the slow threshold.
+ *
+ * <pre>
+ * usage: EvaluatorFuzzer [--count N] [--seed S] [--mode random|grammar|mixed] [--slow-ms MS]
+ * </pre>
+ */
+public final class EvaluatorFuzzer {
+
+    /**
+     * Allows for library functions that are not correctly rounded.
+     */
+    private static final double ERROR_BOUND_FACTOR = 4;
+
+    private static final BigDecimal MAX_DOUBLE = new BigDecimal(Double.MAX_VALUE);
+
+    /**
+     * The number of findings of each kind to print.
+     */
+    private static final int MAX_REPORTED = 10;
+
+    private static final String USAGE = "usage: EvaluatorFuzzer [--count N] [--seed S]"
+            + " [--mode random|grammar|mixed] [--slow-ms MS]";
+
+    private static final class Outcome implements ExpressionEvaluator.Callback {
+        String expr;
+        String result;
+        EvaluationError error;
+
+        @Override
+        public void onEvaluate(String expr, String result, EvaluationError error) {
+            this.expr = expr;
+            this.result = result;
+            this.error = error;
+        }
+
+        @Override
+        public String toString() {
+            return error != null ? "error: " + error.name().toLowerCase(Locale.US)
+                    : result == null ? "(none)" : result;
+        }
+    }
+
+    private static final class Finding {
+        final String input;
+        final String detail;
+        final double severity;
+
+        Finding(String input, String detail, double severity) {
+            this.input = input;
+            this.detail = detail;
+            this.severity = severity;
+        }
+    }
+
+    /**
+     * Keeps the {@link #MAX_REPORTED} most severe findings of a kind, and counts all of them.
+     */
+    private static final class Findings {
+        final String name;
+        final PriorityQueue<Finding> worst = new PriorityQueue<Finding>(MAX_REPORTED + 1,
+                new Comparator<Finding>() {
+                    @Override
+                    public int compare(Finding a, Finding b) {
+                        return Double.compare(a.severity, b.severity);
+                    }
+                });
+        long count;
+
+        Findings(String name) {
+            this.name = name;
+        }
+
+        void add(String input, String detail, double severity) {
+            ++count;
+            worst.add(new Finding(input, detail, severity));
+            if (worst.size() > MAX_REPORTED) {
+                worst.poll();
+            }
+        }
+
+        void print() {
+            System.out.println(name + ": " + count);
+            final List<Finding> findings = new ArrayList<Finding>(worst);
+            Collections.sort(findings, Collections.reverseOrder(worst.comparator()));
+            for (Finding finding : findings) {
+                System.out.println("  " + finding.input + "  " + finding.detail);
+            }
+        }
+    }
+
+    private final ExpressionTokenizer mTokenizer =
+            new ExpressionTokenizer(ExpressionSymbols.DEFAULT);
+    private final ExpressionEvaluator mEvaluator = new ExpressionEvaluator(mTokenizer);
+    private final ExpressionEvaluator mFreshEvaluator = new ExpressionEvaluator(mTokenizer);
+    private final ReferenceEvaluator mReference = new ReferenceEvaluator();
+    private final Outcome mOutcome = new Outcome();
+    private final Outcome mFreshOutcome = new Outcome();
+
+    private final long mSlowNanos;
+    private boolean mRecording;
+
+    private long mInputCount;
+    private long mAgreeCount;
+    private long mNumberCount;
+    private long mSkippedCount;
+
+    private final Findings mImprecise = new Findings("imprecise results");
+    private final Findings mPropertyViolations = new Findings("property violations");
+    private final Findings mCrashes = new Findings("crashes");
+    private final Findings mSlow = new Findings("slow evaluations");
+    private final Findings mSyntax = new Findings("syntax disagreements");
+    private final Findings mDomain = new Findings("domain disagreements");
+    private final Findings mTooComplex = new Findings("too complex");
+
+    private final LatencyHistogram mKeystrokeLatency = new LatencyHistogram();
+    private final LatencyHistogram mResultLatency = new LatencyHistogram();
+
+    public static void main(String[] args) throws UnsupportedEncodingException {
+        long count = 10000;
+        long seed = System.nanoTime();
+        String mode = "mixed";
+        long slowMillis = 100;
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException();
+                }
+                switch (args[i]) {
+                    case "--count":
+                        count = Long.parseLong(args[++i]);
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(args[++i]);
+                        break;
+                    case "--mode":
+                        mode = args[++i];
+                        break;
+                    case "--slow-ms":
+                        slowMillis = Long.parseLong(args[++i]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException();
+                }
+            }
+            if (!mode.equals("random") && !mode.equals("grammar") && !mode.equals("mixed")) {
+                throw new IllegalArgumentException();
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        System.setOut(new PrintStream(new FileOutputStream(FileDescriptor.out), true, "UTF-8"));
+        System.out.println("seed " + seed + ", mode " + mode);
+        final EvaluatorFuzzer fuzzer = new EvaluatorFuzzer(slowMillis);
+        final ExpressionGenerator generator = new ExpressionGenerator(new Random(seed));
+
+        // Let the JIT compile the evaluation paths before anything is timed.
+        final long warmupCount = Math.min(count, 1000);
+        for (long i = 0; i < warmupCount + count; ++i) {
+            fuzzer.mRecording = i >= warmupCount;
+            final boolean grammar =
+                    mode.equals("grammar") || (mode.equals("mixed") && (i & 1) == 0);
+            fuzzer.fuzz(grammar ? generator.nextGrammar() : generator.nextRandom());
+        }
+
+        System.exit(fuzzer.report() ? 0 : 1);
+    }
+
+    private EvaluatorFuzzer(long slowMillis) {
+        mSlowNanos = slowMillis * 1000000L;
+    }
+
+    /**
+     * Types {@code keys} (normalized) one at a time, evaluating after each as the calculator
+     * does for its live result, then evaluates the final expression as if = was pressed.
+     */
+    private void fuzz(List<String> keys) {
+        final StringBuilder text = new StringBuilder();
+        final ExpressionEditor editor = new ExpressionEditor(mTokenizer, true /* isEdited */);
+        try {
+            for (String key : keys) {
+                final ExpressionEditor.Edit edit = editor.replace(text, text.length(),
+                        text.length(), mTokenizer.getLocalizedExpression(key));
+                text.replace(edit.start, edit.end, edit.text.toString());
+                time(mEvaluator, text.toString(), EvaluationBudget.PREVIEW, mOutcome,
+                        mKeystrokeLatency);
+            }
+            time(mEvaluator, text.toString(), EvaluationBudget.RESULT, mOutcome, mResultLatency);
+            mFreshEvaluator.evaluate(text.toString(), EvaluationBudget.RESULT, mFreshOutcome);
+        } catch (RuntimeException e) {
+            if (mRecording) {
+                ++mInputCount;
+                mCrashes.add(text.toString(), e.toString(), 0);
+            }
+            return;
+        }
+
+        if (mRecording) {
+            ++mInputCount;
+            checkProperties(text.toString());
+            checkResult(text.toString());
+        }
+    }
+
+    private void time(ExpressionEvaluator evaluator, String expr, EvaluationBudget budget,
+            Outcome outcome, LatencyHistogram histogram) {
+        final long start = System.nanoTime();
+        evaluator.evaluate(expr, budget, outcome);
+        final long nanos = System.nanoTime() - start;
+        if (mRecording) {
+            histogram.record(nanos);
+            // Time slow evaluations again to tell slow expressions from garbage collection or
+            // compilation pauses.
+            long minNanos = nanos;
+            for (int i = 0; i < 2 && minNanos > mSlowNanos; ++i) {
+                final long retryStart = System.nanoTime();
+                new ExpressionEvaluator(mTokenizer).evaluate(expr, budget, new Outcome());
+                minNanos = Math.min(minNanos, System.nanoTime() - retryStart);
+            }
+            if (minNanos > mSlowNanos) {
+                mSlow.add(expr, String.format(Locale.US, "%.1f ms", minNanos / 1e6), minNanos);
+            }
+        }
+    }
+
+    private void checkProperties(String input) {
+        // Incremental normalization and the evaluator's caches must not change the result.
+        if (!Objects.equals(mOutcome.expr, mFreshOutcome.expr)
+                || !Objects.equals(mOutcome.result, mFreshOutcome.result)
+                || mOutcome.error != mFreshOutcome.error) {
+            mPropertyViolations.add(input, "typed " + mOutcome + " != fresh " + mFreshOutcome, 0);
+        }
+
+        // Localizing the normalized expression must be reversible.
+        final String localized = mTokenizer.getLocalizedExpression(mOutcome.expr);
+        if (!mTokenizer.getNormalizedExpression(localized).equals(mOutcome.expr)) {
+            mPropertyViolations.add(input, "round trip of " + mOutcome.expr, 0);
+        }
+    }
+
+    private void checkResult(String input) {
+        if (mOutcome.result == null && mOutcome.error == null) {
+            // Empty or just a number, nothing was evaluated.
+            ++mNumberCount;
+            return;
+        }
+        if (mOutcome.error == EvaluationError.TOO_COMPLEX) {
+            mTooComplex.add(input, mOutcome.expr, 0);
+            return;
+        }
+
+        final ReferenceEvaluator.Result expected = mReference.evaluate(mOutcome.expr);
+        final String detail = mOutcome + ", expected ";
+        switch (expected.kind) {
+            case UNSUPPORTED:
+                ++mSkippedCount;
+                return;
+            case SYNTAX:
+                if (mOutcome.error == EvaluationError.SYNTAX) {
+                    ++mAgreeCount;
+                } else {
+                    mSyntax.add(input, detail + "syntax error", 0);
+                }
+                return;
+            case UNDEFINED:
+                if (mOutcome.error == EvaluationError.NAN || isInfinity(mOutcome.result)) {
+                    ++mAgreeCount;
+                } else if (mOutcome.error == EvaluationError.SYNTAX) {
+                    mSyntax.add(input, detail + "no result", 0);
+                } else {
+                    mDomain.add(input, detail + "no result", 0);
+                }
+                return;
+            default:
+                break;
+        }
+
+        final BigDecimal value = expected.value;
+        final String expectedString = value.round(new MathContext(20)).toString();
+        if (mOutcome.error == EvaluationError.SYNTAX) {
+            mSyntax.add(input, detail + expectedString, 0);
+            return;
+        }
+        if (value.abs().compareTo(MAX_DOUBLE) > 0) {
+            // Out of the range of a double, the calculator should show ±∞.
+            final String infinity = value.signum() < 0 ? "-Infinity" : "Infinity";
+            if (mOutcome.result != null
+                    && mTokenizer.getNormalizedExpression(mOutcome.result).equals(infinity)) {
+                ++mAgreeCount;
+            } else {
+                mDomain.add(input, detail + expectedString, 0);
+            }
+            return;
+        }
+        if (mOutcome.error != null || isInfinity(mOutcome.result)) {
+            if (expected.error < Math.abs(value.doubleValue())) {
+                mDomain.add(input, detail + expectedString, 0);
+            } else {
+                // Within its error the expression may have no result, e.g. 1/(1-1+1E-20).
+                ++mAgreeCount;
+            }
+            return;
+        }
+        final double errorBound = expected.error * ERROR_BOUND_FACTOR;
+        if (Double.isInfinite(errorBound)) {
+            // Any result is within the error of double arithmetic.
+            ++mAgreeCount;
+            return;
+        }
+        final BigDecimal shown = new BigDecimal(mTokenizer.getNormalizedExpression(
+                mOutcome.result));
+        final BigDecimal error = shown.subtract(value).abs();
+        final BigDecimal allowed = shown.ulp().add(new BigDecimal(errorBound));
+        if (error.compareTo(allowed) > 0) {
+            mImprecise.add(input, detail + expectedString,
+                    error.divide(allowed, MathContext.DECIMAL64).doubleValue());
+        } else {
+            ++mAgreeCount;
+        }
+    }
+
+    private boolean isInfinity(String result) {
+        return result != null
+                && mTokenizer.getNormalizedExpression(result).endsWith("Infinity");
+    }
+
+    /**
+     * Prints a summary of the run, and returns {@code false} if it found any failures.
+     */
+    private boolean report() {
+        System.out.println("inputs: " + mInputCount);
+        System.out.println("  agree with reference: " + mAgreeCount);
+        System.out.println("  numbers, not evaluated: " + mNumberCount);
+        System.out.println("  not supported by reference: " + mSkippedCount);
+        mImprecise.print();
+        mPropertyViolations.print();
+        mCrashes.print();
+        mSlow.print();
+        mSyntax.print();
+        mDomain.print();
+        mTooComplex.print();
+        System.out.println("keystroke latency (us): " + mKeystrokeLatency);
+        System.out.println("result latency (us): " + mResultLatency);
+        return mImprecise.count == 0 && mPropertyViolations.count == 0 && mCrashes.count == 0
+                && mSlow.count == 0;
+    }
+}
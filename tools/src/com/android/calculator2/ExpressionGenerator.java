@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.calculator2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates sequences of calculator key presses, as normalized text: either uniformly random
+ * keys, or keys following the expression grammar so that most sequences are well formed.
+ */
+public class ExpressionGenerator {
+
+    /**
+     * The text of each key of the numeric and advanced pads. Function keys also append a left
+     * parenthesis, as in the calculator.
+     */
+    private static final String[] KEYS = {
+        "0", "1", "2", "3", "4", "5", "6", "7", "8", "9", ".",
+        "+", "-", "*", "/", "^", "!", "√", "π", "e", "(", ")",
+        "sin(", "cos(", "tan(", "ln(", "log(",
+    };
+
+    private static final String[] FUNCTIONS = { "sin(", "cos(", "tan(", "ln(", "log(" };
+
+    private static final int MAX_RANDOM_KEYS = 24;
+    private static final int MAX_DEPTH = 2;
+
+    private final Random mRandom;
+    private final List<String> mKeys = new ArrayList<String>();
+
+    public ExpressionGenerator(Random random) {
+        mRandom = random;
+    }
+
+    /**
+     * Returns 1 to {@link #MAX_RANDOM_KEYS} uniformly random keys.
+     */
+    public List<String> nextRandom() {
+        final List<String> keys = new ArrayList<String>();
+        final int count = 1 + mRandom.nextInt(MAX_RANDOM_KEYS);
+        for (int i = 0; i < count; ++i) {
+            keys.add(KEYS[mRandom.nextInt(KEYS.length)]);
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the keys of a random well formed expression. Exponents and factorials are kept
+     * small so that most results are within the range of a double.
+     */
+    public List<String> nextGrammar() {
+        mKeys.clear();
+        expression(MAX_DEPTH);
+        return new ArrayList<String>(mKeys);
+    }
+
+    private void expression(int depth) {
+        term(depth);
+        final int count = mRandom.nextInt(3);
+        for (int i = 0; i < count; ++i) {
+            emit(mRandom.nextBoolean() ? "+" : "-");
+            term(depth);
+        }
+    }
+
+    private void term(int depth) {
+        factor(depth);
+        final int count = mRandom.nextInt(3);
+        for (int i = 0; i < count; ++i) {
+            final String last = mKeys.get(mKeys.size() - 1);
+            final char end = last.charAt(last.length() - 1);
+            if ((Character.isDigit(end) || end == ')') && mRandom.nextInt(4) == 0) {
+                // Implicit multiplication, e.g. 2π or (1)(2).
+                implicitOperand(depth);
+            } else {
+                emit(mRandom.nextBoolean() ? "*" : "/");
+                factor(depth);
+            }
+        }
+    }
+
+    private void factor(int depth) {
+        if (mRandom.nextInt(6) == 0) {
+            emit("-");
+        }
+        postfix(depth);
+        if (mRandom.nextInt(6) == 0) {
+            emit("^");
+            switch (mRandom.nextInt(4)) {
+                case 0:
+                    emit("-");
+                    emit(Integer.toString(mRandom.nextInt(10)));
+                    break;
+                case 1:
+                    emit(Integer.toString(mRandom.nextInt(10)));
+                    break;
+                case 2:
+                    emit("0");
+                    emit(".");
+                    emit("5");
+                    break;
+                default:
+                    group(depth - 1);
+                    break;
+            }
+        }
+    }
+
+    private void postfix(int depth) {
+        if (mRandom.nextInt(10) == 0) {
+            // Factorials of small integers, arity computes the gamma function of others.
+            emit(Integer.toString(mRandom.nextInt(21)));
+            emit("!");
+        } else {
+            primary(depth);
+        }
+    }
+
+    private void primary(int depth) {
+        final int choice = depth <= 0 ? mRandom.nextInt(10) : mRandom.nextInt(16);
+        if (choice < 7) {
+            number();
+        } else if (choice == 7) {
+            emit("π");
+        } else if (choice <= 9) {
+            emit("e");
+        } else if (choice <= 11) {
+            group(depth - 1);
+        } else if (choice <= 13) {
+            emit(FUNCTIONS[mRandom.nextInt(FUNCTIONS.length)]);
+            expression(depth - 1);
+            emit(")");
+        } else {
+            emit("√");
+            primary(depth - 1);
+        }
+    }
+
+    private void implicitOperand(int depth) {
+        switch (mRandom.nextInt(4)) {
+            case 0:
+                emit("π");
+                break;
+            case 1:
+                emit("√");
+                primary(depth - 1);
+                break;
+            case 2:
+                emit(FUNCTIONS[mRandom.nextInt(FUNCTIONS.length)]);
+                expression(depth - 1);
+                emit(")");
+                break;
+            default:
+                group(depth - 1);
+                break;
+        }
+    }
+
+    private void group(int depth) {
+        emit("(");
+        expression(depth);
+        emit(")");
+    }
+
+    private void number() {
+        if (mRandom.nextInt(10) == 0) {
+            emit("0");
+        } else {
+            digits(1 + mRandom.nextInt(6));
+        }
+        if (mRandom.nextInt(3) == 0) {
+            emit(".");
+            digits(1 + mRandom.nextInt(6));
+        }
+    }
+
+    private void digits(int count) {
+        for (int i = 0; i < count; ++i) {
+            emit(Integer.toString(i == 0 ? 1 + mRandom.nextInt(9) : mRandom.nextInt(10)));
+        }
+    }
+
+    /**
+     * Appends {@code key}, inserting an explicit multiplication where arity would otherwise lex
+     * the keys differently, e.g. 2e as an incomplete exponent or e2 as an identifier.
+     */
+    private void emit(String key) {
+        if (!mKeys.isEmpty()) {
+            final String last = mKeys.get(mKeys.size() - 1);
+            final char end = last.charAt(last.length() - 1);
+            final char start = key.charAt(0);
+            if ((key.equals("e") && (Character.isDigit(end) || end == '.' || end == 'e'))
+                    || (last.equals("e") && (Character.isLetterOrDigit(start) || start == '('
+                            || start == '.'))) {
+                mKeys.add("*");
+            }
+        }
+        mKeys.add(key);
+    }
+}
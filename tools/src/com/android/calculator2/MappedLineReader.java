@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the UTF-8 lines of a file through a sliding memory-mapped window, so that files of any
+ * size are read with bounded memory and without copying through stream buffers. Line terminators
+ * ({@code \n} or {@code \r\n}) are not included in the returned lines.
+ */
+public class MappedLineReader implements Iterator<String>, Closeable {
+
+    /**
+     * The size of the mapped window, which also bounds the length of a single line.
+     */
+    private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final long mFileSize;
+
+    private MappedByteBuffer mWindow;
+    /**
+     * The offset of {@link #mWindow} in the file.
+     */
+    private long mWindowStart;
+
+    private byte[] mLineBuffer = new byte[256];
+    private String mNextLine;
+
+    public MappedLineReader(String path) throws IOException {
+        mFile = new RandomAccessFile(path, "r");
+        mChannel = mFile.getChannel();
+        mFileSize = mChannel.size();
+        map(0);
+        mNextLine = readLine();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return mNextLine != null;
+    }
+
+    @Override
+    public String next() {
+        if (mNextLine == null) {
+            throw new NoSuchElementException();
+        }
+        final String line = mNextLine;
+        try {
+            mNextLine = readLine();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return line;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+    }
+
+    private void map(long start) throws IOException {
+        mWindowStart = start;
+        mWindow = mChannel.map(FileChannel.MapMode.READ_ONLY, start,
+                Math.min(WINDOW_SIZE, mFileSize - start));
+    }
+
+    private String readLine() throws IOException {
+        if (mWindowStart + mWindow.position() >= mFileSize) {
+            return null;
+        }
+
+        int end = indexOfNewline(mWindow.position());
+        if (end == -1 && mWindowStart + mWindow.limit() < mFileSize) {
+            // The line continues past the window, slide the window to start at the line.
+            map(mWindowStart + mWindow.position());
+            end = indexOfNewline(0);
+            if (end == -1 && mWindowStart + mWindow.limit() < mFileSize) {
+                throw new IOException("line at offset " + mWindowStart + " is longer than "
+                        + WINDOW_SIZE + " bytes");
+            }
+        }
+
+        final int start = mWindow.position();
+        final int next = end == -1 ? mWindow.limit() : end + 1;
+        if (end == -1) {
+            end = mWindow.limit();
+        }
+        if (end > start && mWindow.get(end - 1) == '\r') {
+            --end;
+        }
+
+        final int length = end - start;
+        if (length > mLineBuffer.length) {
+            mLineBuffer = new byte[Math.max(length, mLineBuffer.length * 2)];
+        }
+        mWindow.get(mLineBuffer, 0, length);
+        mWindow.position(next);
+        return new String(mLineBuffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private int indexOfNewline(int from) {
+        final int limit = mWindow.limit();
+        for (int i = from; i < limit; ++i) {
+            if (mWindow.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
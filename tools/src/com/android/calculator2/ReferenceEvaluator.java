@@ -0,0 +1,698 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.calculator2;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ * Evaluates normalized expressions to {@link #PRECISION} significant digits, as a reference for
+ * the results of {@link ExpressionEvaluator}. Follows arity's grammar, including its implicit
+ * multiplication (e.g. 2π, (2)3 or 2sin(1)), its lexing of e as an exponent after a number, the
+ * binding of √ to the following primary, and its implicit opening of unmatched right
+ * parentheses. Trigonometric functions use radians. Not thread-safe.
+ *
+ * <p>Alongside each value it propagates a first order bound on the error of evaluating the same
+ * expression in double arithmetic, assuming every literal and operation is rounded to the
+ * nearest double. Ill-conditioned expressions, e.g. sin(1E20) or 1E20+1-1E20, have a large
+ * bound since no double result can be expected to be accurate.
+ */
+public class ReferenceEvaluator {
+
+    public static final int PRECISION = 50;
+
+    private static final MathContext MATH_CONTEXT =
+            new MathContext(PRECISION, RoundingMode.HALF_EVEN);
+
+    /**
+     * The relative error of rounding to the nearest double.
+     */
+    private static final double EPSILON = Math.ulp(1.0) / 2;
+
+    /**
+     * The largest exponent of integer powers and number literals, and the largest factorial.
+     */
+    private static final int MAX_EXPONENT = 9999;
+
+    /**
+     * Arguments of the trigonometric functions must have at most this many integer digits.
+     */
+    private static final int MAX_TRIG_DIGITS = 400;
+
+    private static final BigDecimal TWO = BigDecimal.valueOf(2);
+
+    private static final char SQRT = '√';
+    private static final char PI = 'π';
+
+    public enum Kind {
+        /**
+         * The result is {@link Result#value}.
+         */
+        VALUE,
+        /**
+         * The expression is not well formed.
+         */
+        SYNTAX,
+        /**
+         * The result is not a finite number, e.g. 1/0, 0/0 or ln(0).
+         */
+        UNDEFINED,
+        /**
+         * The reference cannot evaluate the expression, e.g. the factorial of a non-integer or
+         * the square root of a negative number.
+         */
+        UNSUPPORTED
+    }
+
+    public static final class Result {
+        public final Kind kind;
+        public final BigDecimal value;
+        /**
+         * The bound on the absolute error of evaluating the expression in double arithmetic,
+         * possibly infinite.
+         */
+        public final double error;
+
+        private Result(Kind kind, BigDecimal value, double error) {
+            this.kind = kind;
+            this.value = value;
+            this.error = error;
+        }
+    }
+
+    /**
+     * A value and the bound on the absolute error of computing it in double arithmetic.
+     */
+    private static final class Value {
+        final BigDecimal value;
+        final double error;
+
+        Value(BigDecimal value, double error) {
+            this.value = value;
+            this.error = error;
+        }
+
+        double abs() {
+            return Math.abs(value.doubleValue());
+        }
+    }
+
+    private static final class SyntaxException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        SyntaxException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private String mExpr;
+    private int mPosition;
+
+    // Set when a subexpression is undefined or unsupported, parsing continues so that syntax
+    // errors take precedence.
+    private boolean mUndefined;
+    private boolean mUnsupported;
+
+    // Constants computed on demand.
+    private BigDecimal mPi = BigDecimal.ZERO;
+    private BigDecimal mLn10;
+    private BigDecimal mE;
+
+    public Result evaluate(String expr) {
+        // arity implicitly opens unmatched right parentheses at the start, e.g. 2)3 is (2)3.
+        int depth = 0;
+        int unmatched = 0;
+        for (int i = 0; i < expr.length(); ++i) {
+            if (expr.charAt(i) == '(') {
+                ++depth;
+            } else if (expr.charAt(i) == ')' && --depth < 0) {
+                depth = 0;
+                ++unmatched;
+            }
+        }
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < unmatched; ++i) {
+            builder.append('(');
+        }
+        mExpr = builder.append(expr).toString();
+        mPosition = 0;
+        mUndefined = false;
+        mUnsupported = false;
+        try {
+            final Value result = parseExpression();
+            if (mPosition != mExpr.length()) {
+                throw new SyntaxException();
+            }
+            if (mUnsupported) {
+                return new Result(Kind.UNSUPPORTED, null, Double.POSITIVE_INFINITY);
+            } else if (mUndefined) {
+                return new Result(Kind.UNDEFINED, null, Double.POSITIVE_INFINITY);
+            }
+            return new Result(Kind.VALUE, result.value.round(MATH_CONTEXT), result.error);
+        } catch (SyntaxException e) {
+            return new Result(Kind.SYNTAX, null, Double.POSITIVE_INFINITY);
+        } finally {
+            mExpr = null;
+        }
+    }
+
+    private Value parseExpression() {
+        Value value = parseTerm();
+        while (true) {
+            if (consume('+')) {
+                final Value addend = parseTerm();
+                value = rounded(value.value.add(addend.value, MATH_CONTEXT),
+                        value.error + addend.error);
+            } else if (consume('-')) {
+                final Value subtrahend = parseTerm();
+                value = rounded(value.value.subtract(subtrahend.value, MATH_CONTEXT),
+                        value.error + subtrahend.error);
+            } else {
+                return value;
+            }
+        }
+    }
+
+    private Value parseTerm() {
+        Value value = parseUnary();
+        while (true) {
+            if (consume('*') || startsImplicitOperand()) {
+                value = multiply(value, parseUnary());
+            } else if (consume('/')) {
+                value = divide(value, parseUnary());
+            } else {
+                return value;
+            }
+        }
+    }
+
+    private Value parseUnary() {
+        if (consume('-')) {
+            final Value value = parseUnary();
+            return new Value(value.value.negate(), value.error);
+        } else if (consume('+')) {
+            return parseUnary();
+        }
+        return parsePower();
+    }
+
+    private Value parsePower() {
+        final Value base = parsePostfix();
+        if (consume('^')) {
+            // Right associative, the exponent may have a sign, e.g. 2^-3^2.
+            return pow(base, parseUnary());
+        }
+        return base;
+    }
+
+    private Value parsePostfix() {
+        Value value = parsePrimary();
+        while (consume('!')) {
+            value = factorial(value);
+        }
+        return value;
+    }
+
+    private Value parsePrimary() {
+        if (consume(SQRT)) {
+            // √ applies to the following primary, e.g. √4! is (√4)!, but a minus sign applies to
+            // the rest of the operand, e.g. √-0! is √-(0!).
+            while (consume('+')) {
+                // A plus sign is ignored, e.g. √+4! is (√4)!.
+            }
+            return sqrt(peek('-') ? parseUnary() : parsePrimary());
+        }
+        if (consume(PI)) {
+            return rounded(pi(PRECISION), 0);
+        }
+        if (consume('(')) {
+            final Value value = parseExpression();
+            // Unbalanced parentheses are implicitly closed at the end of the expression.
+            if (!consume(')') && mPosition != mExpr.length()) {
+                throw new SyntaxException();
+            }
+            return value;
+        }
+        if (mPosition < mExpr.length() && isLetter(mExpr.charAt(mPosition))) {
+            return parseIdentifier();
+        }
+        return rounded(parseNumber(), 0);
+    }
+
+    private Value parseIdentifier() {
+        final int start = mPosition;
+        while (mPosition < mExpr.length() && (isLetter(mExpr.charAt(mPosition))
+                || isDigit(mExpr.charAt(mPosition)))) {
+            ++mPosition;
+        }
+        final String name = mExpr.substring(start, mPosition);
+        if (consume('(')) {
+            final Value argument = parseExpression();
+            if (!consume(')') && mPosition != mExpr.length()) {
+                throw new SyntaxException();
+            }
+            return apply(name, argument);
+        }
+        if (name.equals("e")) {
+            return rounded(e(), 0);
+        }
+        throw new SyntaxException();
+    }
+
+    /**
+     * Parses a number. Like arity, the number is the longest run of digits, decimal points and
+     * exponents, e.g. 2e and 1e2e are malformed numbers rather than products with e.
+     */
+    private BigDecimal parseNumber() {
+        final int start = mPosition;
+        final int length = mExpr.length();
+        while (mPosition < length) {
+            final char c = mExpr.charAt(mPosition);
+            if (isDigit(c) || c == '.' || c == 'e' || c == 'E'
+                    || (c == '-' && (mExpr.charAt(mPosition - 1) == 'e'
+                            || mExpr.charAt(mPosition - 1) == 'E'))) {
+                ++mPosition;
+            } else {
+                break;
+            }
+        }
+        final String number = mExpr.substring(start, mPosition);
+        if (number.equals(".")) {
+            // A lone decimal point is zero.
+            return BigDecimal.ZERO;
+        }
+        // The mantissa must have a digit and at most one decimal point, the exponent digits.
+        if (!number.matches("(\\d+\\.?\\d*|\\.\\d+)([eE]-?\\d+)?")) {
+            throw new SyntaxException();
+        }
+
+        final int exponentStart = Math.max(number.indexOf('e'), number.indexOf('E'));
+        String mantissa = exponentStart == -1 ? number : number.substring(0, exponentStart);
+        int exponent = 0;
+        if (exponentStart != -1) {
+            final String digits = number.substring(exponentStart + 1);
+            if (digits.length() > 6) {
+                mUnsupported = true;
+                return BigDecimal.ONE;
+            }
+            exponent = Integer.parseInt(digits);
+            if (Math.abs(exponent) > MAX_EXPONENT) {
+                mUnsupported = true;
+                return BigDecimal.ONE;
+            }
+        }
+        // BigDecimal does not accept a trailing decimal point (e.g. "5.").
+        if (mantissa.endsWith(".")) {
+            mantissa = mantissa.substring(0, mantissa.length() - 1);
+        }
+        return new BigDecimal(mantissa).scaleByPowerOfTen(exponent);
+    }
+
+    /**
+     * Returns {@code true} if the next character starts an operand that is implicitly
+     * multiplied with the previous one. Numbers may only follow a closing parenthesis, a
+     * factorial or a constant, since digits following a number are part of it.
+     */
+    private boolean startsImplicitOperand() {
+        if (mPosition == mExpr.length()) {
+            return false;
+        }
+        final char c = mExpr.charAt(mPosition);
+        if (c == '(' || c == SQRT || c == PI || isLetter(c)) {
+            return true;
+        }
+        final char previous = mExpr.charAt(mPosition - 1);
+        return (c == '.' || isDigit(c))
+                && (previous == ')' || previous == '!' || previous == PI || previous == 'e');
+    }
+
+    private Value multiply(Value a, Value b) {
+        return rounded(a.value.multiply(b.value, MATH_CONTEXT),
+                a.abs() * b.error + b.abs() * a.error + a.error * b.error);
+    }
+
+    private Value divide(Value a, Value b) {
+        if (b.value.signum() == 0) {
+            return undefined();
+        }
+        final BigDecimal quotient = a.value.divide(b.value, MATH_CONTEXT);
+        // The divisor may be zero within its error.
+        final double error = b.error >= b.abs() ? Double.POSITIVE_INFINITY
+                : (a.error + Math.abs(quotient.doubleValue()) * b.error) / (b.abs() - b.error);
+        return rounded(quotient, error);
+    }
+
+    private Value apply(String function, Value x) {
+        final double error;
+        final BigDecimal value;
+        switch (function) {
+            case "sin":
+                value = sin(x.value);
+                error = Math.min(x.error, 2);
+                break;
+            case "cos":
+                value = cos(x.value);
+                error = Math.min(x.error, 2);
+                break;
+            case "tan": {
+                final BigDecimal cos = cos(x.value);
+                if (cos.signum() == 0) {
+                    return undefined();
+                }
+                value = sin(x.value).divide(cos, MATH_CONTEXT);
+                // tan(x + dx) - tan(x) = dx (1 + tan(x)^2) / (1 - dx tan(x)), unbounded if
+                // x + dx may be a pole.
+                final double tan = Math.abs(value.doubleValue());
+                error = x.error * tan >= 1 ? Double.POSITIVE_INFINITY
+                        : x.error * (1 + tan * tan) / (1 - x.error * tan);
+                break;
+            }
+            case "ln":
+            case "log":
+                if (x.value.signum() == 0) {
+                    // -∞
+                    return undefined();
+                } else if (x.value.signum() < 0) {
+                    return complex();
+                }
+                final boolean ln = function.equals("ln");
+                value = ln ? ln(x.value) : ln(x.value).divide(ln10(), MATH_CONTEXT);
+                error = x.error >= x.abs() ? Double.POSITIVE_INFINITY
+                        : x.error / (x.abs() - x.error) / (ln ? 1 : Math.log(10));
+                break;
+            default:
+                throw new SyntaxException();
+        }
+        return rounded(value, error);
+    }
+
+    private Value pow(Value base, Value exponent) {
+        final BigDecimal x = base.value;
+        final BigDecimal y = exponent.value;
+        final BigDecimal value;
+        if (isInteger(y) && y.abs().compareTo(BigDecimal.valueOf(MAX_EXPONENT)) <= 0) {
+            final int n = y.intValueExact();
+            if (n < 0 && x.signum() == 0) {
+                return undefined();
+            }
+            value = x.pow(n, MATH_CONTEXT);
+        } else if (x.signum() == 0) {
+            if (y.signum() < 0) {
+                return undefined();
+            }
+            value = BigDecimal.ZERO;
+        } else if (x.signum() < 0) {
+            return complex();
+        } else {
+            final BigDecimal exponentValue = exp(y.multiply(ln(x), MATH_CONTEXT));
+            if (exponentValue == null) {
+                return unsupported();
+            }
+            value = exponentValue;
+        }
+
+        // x^y = e^(y ln(x)), and d (y ln(x)) = y dx / x + ln(x) dy.
+        final double result = Math.abs(value.doubleValue());
+        final double error;
+        if (base.error == 0 && exponent.error == 0) {
+            error = 0;
+        } else if (x.signum() == 0 || base.error >= base.abs()) {
+            error = Double.POSITIVE_INFINITY;
+        } else {
+            error = result * Math.expm1(
+                    Math.abs(y.doubleValue()) * base.error / (base.abs() - base.error)
+                    + Math.abs(Math.log(base.abs())) * exponent.error);
+        }
+        return rounded(value, error);
+    }
+
+    private Value factorial(Value operand) {
+        final BigDecimal value = operand.value;
+        if (!isInteger(value) || value.compareTo(BigDecimal.valueOf(MAX_EXPONENT)) > 0) {
+            // arity computes the gamma function of non-integers.
+            return unsupported();
+        } else if (value.signum() < 0) {
+            return undefined();
+        }
+        final int n = value.intValueExact();
+        BigInteger result = BigInteger.ONE;
+        for (int i = 2; i <= n; ++i) {
+            result = result.multiply(BigInteger.valueOf(i));
+        }
+        // A factorial is only exact for an exact integer operand, and is computed with the
+        // gamma function otherwise, d Γ(x + 1) / dx is about Γ(x + 1) ln(x).
+        final BigDecimal factorial = new BigDecimal(result, MATH_CONTEXT);
+        final double error = operand.error == 0 ? 0
+                : Math.abs(factorial.doubleValue()) * (Math.log(n + 1) + 1) * operand.error;
+        return rounded(factorial, error);
+    }
+
+    private Value sqrt(Value operand) {
+        final BigDecimal value = operand.value;
+        if (value.signum() < 0) {
+            return complex();
+        } else if (value.signum() == 0) {
+            return new Value(BigDecimal.ZERO, Math.sqrt(operand.error));
+        }
+        final MathContext mc = new MathContext(PRECISION + 10);
+        // Newton's method, starting from a power of ten of about the right magnitude.
+        BigDecimal x = BigDecimal.ONE.scaleByPowerOfTen((value.precision() - value.scale()) / 2);
+        for (int i = 0; i < 100; ++i) {
+            final BigDecimal next = x.add(value.divide(x, mc)).divide(TWO, mc);
+            if (next.compareTo(x) == 0) {
+                break;
+            }
+            x = next;
+        }
+        final BigDecimal root = x.round(MATH_CONTEXT);
+        // d √x = dx / (2 √x).
+        return rounded(root, operand.error / (2 * Math.abs(root.doubleValue())));
+    }
+
+    /**
+     * Returns a value with {@code error} and the error of rounding {@code value} to a double.
+     */
+    private static Value rounded(BigDecimal value, double error) {
+        final double abs = Math.abs(value.doubleValue());
+        double total = error + EPSILON * abs;
+        if (Double.isNaN(total) || Double.isInfinite(abs)) {
+            // Overflows, or e.g. 0 * ∞ for products of values out of the range of a double.
+            total = Double.POSITIVE_INFINITY;
+        } else if (abs < Double.MIN_NORMAL) {
+            // Underflows to a subnormal number or zero.
+            total += abs;
+        }
+        return new Value(value, total);
+    }
+
+    /**
+     * Notes that the expression is undefined, and returns a placeholder value to continue
+     * parsing with.
+     */
+    private Value undefined() {
+        mUndefined = true;
+        return new Value(BigDecimal.ONE, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Notes that a subexpression is complex. arity evaluates these with complex arithmetic,
+     * which may still give a real result, e.g. ln(cos(√-1)).
+     */
+    private Value complex() {
+        return unsupported();
+    }
+
+    private Value unsupported() {
+        mUnsupported = true;
+        return new Value(BigDecimal.ONE, Double.POSITIVE_INFINITY);
+    }
+
+    private BigDecimal sin(BigDecimal x) {
+        final int precision = precisionFor(x);
+        if (precision < 0) {
+            mUnsupported = true;
+            return BigDecimal.ZERO;
+        }
+        final MathContext mc = new MathContext(precision);
+
+        // Reduce to [-π, π].
+        final BigDecimal twoPi = pi(precision).multiply(TWO);
+        final BigDecimal r = x.subtract(twoPi.multiply(
+                x.divide(twoPi, 0, RoundingMode.HALF_EVEN)), mc);
+
+        // Taylor series.
+        final BigDecimal r2 = r.multiply(r, mc);
+        final BigDecimal epsilon = BigDecimal.ONE.movePointLeft(precision + 5);
+        BigDecimal term = r;
+        BigDecimal sum = r;
+        for (int n = 1; term.abs().compareTo(epsilon) > 0; ++n) {
+            final long divisor = (2L * n) * (2L * n + 1);
+            term = term.multiply(r2, mc).divide(BigDecimal.valueOf(divisor), mc).negate();
+            sum = sum.add(term, mc);
+        }
+        return sum.round(MATH_CONTEXT);
+    }
+
+    private BigDecimal cos(BigDecimal x) {
+        final int precision = precisionFor(x);
+        return sin(x.add(pi(Math.max(precision, PRECISION)).divide(TWO)));
+    }
+
+    private BigDecimal ln(BigDecimal x) {
+        // x = m * 10^k with 1 <= m < 10.
+        final int k = x.precision() - x.scale() - 1;
+        final BigDecimal m = x.movePointLeft(k);
+        BigDecimal result = lnNewton(m);
+        if (k != 0) {
+            result = result.add(ln10().multiply(BigDecimal.valueOf(k)));
+        }
+        return result.round(MATH_CONTEXT);
+    }
+
+    /**
+     * Returns ln(m) for 1 <= m <= 10 using Halley's method on exp(y) = m.
+     */
+    private static BigDecimal lnNewton(BigDecimal m) {
+        final MathContext mc = new MathContext(PRECISION + 10);
+        final BigDecimal epsilon = BigDecimal.ONE.movePointLeft(PRECISION + 5);
+        BigDecimal y = new BigDecimal(Math.log(m.doubleValue()));
+        for (int i = 0; i < 20; ++i) {
+            final BigDecimal exp = exp(y, mc);
+            final BigDecimal delta = TWO.multiply(m.subtract(exp), mc).divide(m.add(exp), mc);
+            y = y.add(delta, mc);
+            if (delta.abs().compareTo(epsilon) < 0) {
+                break;
+            }
+        }
+        return y;
+    }
+
+    /**
+     * Returns e^x, or {@code null} if it is far outside the range of a double.
+     */
+    private static BigDecimal exp(BigDecimal x) {
+        if (x.abs().compareTo(BigDecimal.valueOf(10 * MAX_EXPONENT)) > 0) {
+            return null;
+        }
+        return exp(x, new MathContext(PRECISION + 10)).round(MATH_CONTEXT);
+    }
+
+    private static BigDecimal exp(BigDecimal x, MathContext mc) {
+        if (x.signum() < 0) {
+            return BigDecimal.ONE.divide(exp(x.negate(), mc), mc);
+        }
+        // e^x = (e^(x / 2^k))^(2^k), with x / 2^k < 1. Each squaring doubles the relative error,
+        // so add digits of precision for them.
+        final int k = x.toBigInteger().bitLength();
+        final MathContext workMc = new MathContext(mc.getPrecision() + k / 3 + 5);
+        final BigDecimal r = x.divide(TWO.pow(k), workMc);
+        final BigDecimal epsilon = BigDecimal.ONE.movePointLeft(workMc.getPrecision());
+
+        BigDecimal term = BigDecimal.ONE;
+        BigDecimal sum = BigDecimal.ONE;
+        for (int n = 1; term.compareTo(epsilon) > 0; ++n) {
+            term = term.multiply(r, workMc).divide(BigDecimal.valueOf(n), workMc);
+            sum = sum.add(term, workMc);
+        }
+        for (int i = 0; i < k; ++i) {
+            sum = sum.multiply(sum, workMc);
+        }
+        return sum.round(mc);
+    }
+
+    private BigDecimal e() {
+        if (mE == null) {
+            mE = exp(BigDecimal.ONE);
+        }
+        return mE;
+    }
+
+    private BigDecimal ln10() {
+        if (mLn10 == null) {
+            mLn10 = lnNewton(BigDecimal.TEN);
+        }
+        return mLn10;
+    }
+
+    /**
+     * Returns π to {@code precision} digits, using Machin's formula
+     * π = 16 atan(1/5) - 4 atan(1/239).
+     */
+    private BigDecimal pi(int precision) {
+        if (mPi.precision() < precision) {
+            final MathContext mc = new MathContext(precision + 10);
+            mPi = atanInverse(5, mc).multiply(BigDecimal.valueOf(16))
+                    .subtract(atanInverse(239, mc).multiply(BigDecimal.valueOf(4)))
+                    .round(new MathContext(precision));
+        }
+        return mPi.round(new MathContext(precision));
+    }
+
+    /**
+     * Returns atan(1 / {@code n}).
+     */
+    private static BigDecimal atanInverse(int n, MathContext mc) {
+        final BigDecimal x = BigDecimal.ONE.divide(BigDecimal.valueOf(n), mc);
+        final BigDecimal x2 = x.multiply(x, mc);
+        final BigDecimal epsilon = BigDecimal.ONE.movePointLeft(mc.getPrecision());
+        BigDecimal power = x;
+        BigDecimal sum = x;
+        for (int k = 1; power.compareTo(epsilon) > 0; ++k) {
+            power = power.multiply(x2, mc);
+            final BigDecimal term = power.divide(BigDecimal.valueOf(2 * k + 1), mc);
+            sum = (k & 1) == 1 ? sum.subtract(term, mc) : sum.add(term, mc);
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the working precision for reducing {@code x} modulo 2π: enough digits for the
+     * integer part of {@code x} in addition to {@link #PRECISION}, or -1 if {@code x} is too
+     * large.
+     */
+    private static int precisionFor(BigDecimal x) {
+        final int integerDigits = Math.max(0, x.precision() - x.scale());
+        return integerDigits > MAX_TRIG_DIGITS ? -1 : PRECISION + 10 + integerDigits;
+    }
+
+    private boolean peek(char c) {
+        return mPosition < mExpr.length() && mExpr.charAt(mPosition) == c;
+    }
+
+    private boolean consume(char c) {
+        if (peek(c)) {
+            ++mPosition;
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isInteger(BigDecimal value) {
+        return value.signum() == 0 || value.stripTrailingZeros().scale() <= 0;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+}